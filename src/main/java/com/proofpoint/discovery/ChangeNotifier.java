@@ -0,0 +1,78 @@
+/*
+ * Copyright 2016 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.discovery;
+
+import com.proofpoint.log.Logger;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.proofpoint.concurrent.Threads.daemonThreadsNamed;
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
+
+/**
+ * Runs the registered watches on a dedicated thread whenever a change is
+ * signalled. Changes signalled while the watches are already pending are
+ * coalesced into a single run.
+ */
+@ThreadSafe
+class ChangeNotifier
+{
+    private static final Logger log = Logger.get(ChangeNotifier.class);
+
+    private final Set<Runnable> watches = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean pending = new AtomicBoolean();
+    private final ExecutorService executor = newSingleThreadExecutor(daemonThreadsNamed("service-change-notifier-%s"));
+
+    public void addWatch(Runnable watch)
+    {
+        watches.add(checkNotNull(watch, "watch is null"));
+    }
+
+    public void removeWatch(Runnable watch)
+    {
+        watches.remove(watch);
+    }
+
+    public void notifyChange()
+    {
+        if (pending.compareAndSet(false, true)) {
+            executor.execute(this::runWatches);
+        }
+    }
+
+    public void shutdown()
+    {
+        executor.shutdownNow();
+    }
+
+    private void runWatches()
+    {
+        pending.set(false);
+        for (Runnable watch : watches) {
+            try {
+                watch.run();
+            }
+            catch (RuntimeException e) {
+                log.error(e, "Error running watch");
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2016 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.discovery;
+
+import com.google.common.collect.ImmutableList;
+import com.proofpoint.discovery.store.Entry;
+import com.proofpoint.discovery.store.UpdateListener;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Holds the decoded services of each entry in a store, keyed by the entry's
+ * key and timestamp. Entries are decoded once, when the store notifies of
+ * their insertion or replacement.
+ */
+@ThreadSafe
+class DecodedServicesCache
+        implements UpdateListener
+{
+    private final ServiceValueCodec codec;
+    private final ConcurrentMap<ByteBuffer, DecodedServices> cache = new ConcurrentHashMap<>();
+
+    DecodedServicesCache(ServiceValueCodec codec)
+    {
+        this.codec = checkNotNull(codec, "codec is null");
+    }
+
+    @Override
+    public void notifyInsert(Entry newEntry)
+    {
+        cacheEntry(newEntry);
+    }
+
+    @Override
+    public void notifyUpdate(Entry oldEntry, Entry newEntry)
+    {
+        cacheEntry(newEntry);
+    }
+
+    @Override
+    public void notifyRemove(Entry oldEntry)
+    {
+        invalidate(ByteBuffer.wrap(oldEntry.getKey()), oldEntry.getTimestamp());
+    }
+
+    public List<Service> get(Entry entry)
+    {
+        DecodedServices decoded = cache.get(ByteBuffer.wrap(entry.getKey()));
+        if (decoded != null && decoded.getTimestamp() == entry.getTimestamp()) {
+            return decoded.getServices();
+        }
+
+        // lost a race with the notification for this entry; don't cache
+        return decode(entry);
+    }
+
+    private void cacheEntry(Entry entry)
+    {
+        ByteBuffer key = ByteBuffer.wrap(entry.getKey());
+        if (entry.getValue() == null) {
+            invalidate(key, entry.getTimestamp());
+            return;
+        }
+
+        // a renewal keeps the same value, so its services are reused
+        DecodedServices current = cache.get(key);
+        List<Service> services;
+        if (current != null && Arrays.equals(current.getValue(), entry.getValue())) {
+            services = current.getServices();
+        }
+        else {
+            services = decode(entry);
+        }
+
+        DecodedServices decoded = new DecodedServices(entry.getTimestamp(), entry.getValue(), services);
+        cache.merge(key, decoded, (oldDecoded, newDecoded) -> oldDecoded.getTimestamp() > newDecoded.getTimestamp() ? oldDecoded : newDecoded);
+    }
+
+    private void invalidate(ByteBuffer key, long timestamp)
+    {
+        cache.computeIfPresent(key, (ignored, decoded) -> decoded.getTimestamp() <= timestamp ? null : decoded);
+    }
+
+    private List<Service> decode(Entry entry)
+    {
+        return ImmutableList.copyOf(codec.decode(entry.getValue()));
+    }
+
+    private static class DecodedServices
+    {
+        private final long timestamp;
+        private final byte[] value;
+        private final List<Service> services;
+
+        DecodedServices(long timestamp, byte[] value, List<Service> services)
+        {
+            this.timestamp = timestamp;
+            this.value = value;
+            this.services = services;
+        }
+
+        public long getTimestamp()
+        {
+            return timestamp;
+        }
+
+        public byte[] getValue()
+        {
+            return value;
+        }
+
+        public List<Service> getServices()
+        {
+            return services;
+        }
+    }
+}
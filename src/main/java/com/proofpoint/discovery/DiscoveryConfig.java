@@ -22,6 +22,7 @@ import com.proofpoint.configuration.ConfigDescription;
 import com.proofpoint.units.Duration;
 
 import javax.validation.constraints.AssertTrue;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 import java.net.URI;
 import java.util.Arrays;
@@ -36,6 +37,10 @@ public class DiscoveryConfig
     private StringSet proxyProxiedTypes = StringSet.of();
     private String proxyEnvironment = null;
     private UriSet proxyUris = UriSet.of();
+    private int ingestionThreads = 4;
+    private int ingestionQueueSize = 10_000;
+    private Duration ingestionRetryAfter = new Duration(5, TimeUnit.SECONDS);
+    private boolean compactValues = false;
 
     @NotNull
     public Duration getMaxAge()
@@ -90,6 +95,61 @@ public class DiscoveryConfig
         return this;
     }
 
+    @Min(1)
+    public int getIngestionThreads()
+    {
+        return ingestionThreads;
+    }
+
+    @Config("discovery.ingestion.threads")
+    @ConfigDescription("Number of threads applying dynamic announcements")
+    public DiscoveryConfig setIngestionThreads(int ingestionThreads)
+    {
+        this.ingestionThreads = ingestionThreads;
+        return this;
+    }
+
+    @Min(1)
+    public int getIngestionQueueSize()
+    {
+        return ingestionQueueSize;
+    }
+
+    @Config("discovery.ingestion.queue-size")
+    @ConfigDescription("Maximum number of dynamic announcements waiting to be applied")
+    public DiscoveryConfig setIngestionQueueSize(int ingestionQueueSize)
+    {
+        this.ingestionQueueSize = ingestionQueueSize;
+        return this;
+    }
+
+    @NotNull
+    public Duration getIngestionRetryAfter()
+    {
+        return ingestionRetryAfter;
+    }
+
+    @Config("discovery.ingestion.retry-after")
+    @ConfigDescription("Time announcers are asked to wait when the dynamic announcement queue is full")
+    public DiscoveryConfig setIngestionRetryAfter(Duration ingestionRetryAfter)
+    {
+        this.ingestionRetryAfter = ingestionRetryAfter;
+        return this;
+    }
+
+    public boolean isCompactValues()
+    {
+        return compactValues;
+    }
+
+    @Config("discovery.compact-values")
+    @ConfigDescription("Store dynamic announcements in the compact format; enable only once every discovery server reads it")
+    public DiscoveryConfig setCompactValues(boolean compactValues)
+    {
+        this.compactValues = compactValues;
+        return this;
+    }
+
     @AssertTrue(message = "discovery.proxy.environment specified if and only if any proxy types")
     public boolean isProxyTypeAndEnvironment()
     {
@@ -34,6 +34,7 @@ import static com.proofpoint.configuration.ConfigurationModule.bindConfig;
 import static com.proofpoint.discovery.client.DiscoveryBinder.discoveryBinder;
 import static com.proofpoint.http.client.HttpClientBinder.httpClientBinder;
 import static com.proofpoint.jaxrs.JaxrsBinder.jaxrsBinder;
+import static com.proofpoint.reporting.ReportBinder.reportBinder;
 
 public class DiscoveryServerModule
         extends AbstractConfigurationAwareModule
@@ -43,12 +44,15 @@ public class DiscoveryServerModule
     {
         bindConfig(binder).to(DiscoveryConfig.class);
         jaxrsBinder(binder).bind(ServiceResource.class).withApplicationPrefix();
+        jaxrsBinder(binder).bind(ServiceSummaryResource.class).withApplicationPrefix();
         binder.bind(InitializationTracker.class).in(Scopes.SINGLETON);
 
         discoveryBinder(binder).bindHttpAnnouncement("discovery");
 
         // dynamic announcements
         jaxrsBinder(binder).bind(DynamicAnnouncementResource.class).withApplicationPrefix();
+        binder.bind(DynamicAnnouncementIngester.class).in(Scopes.SINGLETON);
+        reportBinder(binder).export(DynamicAnnouncementIngester.class).withApplicationPrefix();
         binder.bind(DynamicStore.class).to(ReplicatedDynamicStore.class).in(Scopes.SINGLETON);
         binder.install(new ReplicatedStoreModule("dynamic", ForDynamicStore.class, InMemoryStore.class));
 
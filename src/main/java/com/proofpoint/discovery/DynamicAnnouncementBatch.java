@@ -0,0 +1,62 @@
+/*
+ * Copyright 2016 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.discovery;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableMap;
+
+import javax.annotation.concurrent.Immutable;
+import javax.validation.Valid;
+import javax.validation.constraints.NotNull;
+import java.util.Map;
+
+/**
+ * The announcements of several nodes, such as the processes of one host,
+ * keyed by node id.
+ */
+@Immutable
+public class DynamicAnnouncementBatch
+{
+    private final Map<Id<Node>, DynamicAnnouncement> announcements;
+
+    @JsonCreator
+    public DynamicAnnouncementBatch(@JsonProperty("announcements") Map<Id<Node>, DynamicAnnouncement> announcements)
+    {
+        if (announcements != null) {
+            this.announcements = ImmutableMap.copyOf(announcements);
+        }
+        else {
+            this.announcements = null;
+        }
+    }
+
+    @NotNull
+    @Valid
+    @JsonProperty
+    public Map<Id<Node>, DynamicAnnouncement> getAnnouncements()
+    {
+        return announcements;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "DynamicAnnouncementBatch{" +
+                "announcements=" + announcements +
+                '}';
+    }
+}
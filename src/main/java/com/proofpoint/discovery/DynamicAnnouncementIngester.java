@@ -0,0 +1,190 @@
+/*
+ * Copyright 2016 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.discovery;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.proofpoint.log.Logger;
+import com.proofpoint.reporting.Gauge;
+import com.proofpoint.stats.CounterStat;
+import com.proofpoint.units.Duration;
+import org.weakref.jmx.Nested;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.proofpoint.concurrent.Threads.daemonThreadsNamed;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Applies dynamic announcements to the dynamic store on its own threads,
+ * so a burst of announcements queues up here instead of occupying the
+ * request threads that also serve lookups. Each node is always handled by
+ * the same thread, which keeps the changes to a node in order. Once a
+ * thread's queue is full, further changes for its nodes are rejected and
+ * the announcer is expected to retry later.
+ */
+public class DynamicAnnouncementIngester
+{
+    private static final Logger log = Logger.get(DynamicAnnouncementIngester.class);
+
+    private final DynamicStore dynamicStore;
+    private final List<ExecutorService> workers;
+    private final Duration retryAfter;
+
+    private final CounterStat rejectedChanges = new CounterStat();
+
+    @Inject
+    public DynamicAnnouncementIngester(DynamicStore dynamicStore, DiscoveryConfig config)
+    {
+        this(dynamicStore, createWorkers(config.getIngestionThreads(), config.getIngestionQueueSize()), config.getIngestionRetryAfter());
+    }
+
+    DynamicAnnouncementIngester(DynamicStore dynamicStore, List<? extends ExecutorService> workers, Duration retryAfter)
+    {
+        this.dynamicStore = checkNotNull(dynamicStore, "dynamicStore is null");
+        this.workers = ImmutableList.copyOf(checkNotNull(workers, "workers is null"));
+        this.retryAfter = checkNotNull(retryAfter, "retryAfter is null");
+        checkArgument(!this.workers.isEmpty(), "workers is empty");
+    }
+
+    private static List<ExecutorService> createWorkers(int threads, int queueSize)
+    {
+        int workerQueueSize = Math.max(1, (queueSize + threads - 1) / threads);
+
+        ImmutableList.Builder<ExecutorService> builder = ImmutableList.builder();
+        for (int i = 0; i < threads; i++) {
+            builder.add(new ThreadPoolExecutor(1, 1, 0, MILLISECONDS,
+                    new ArrayBlockingQueue<>(workerQueueSize),
+                    daemonThreadsNamed("announcement-ingester-" + i + "-%s")));
+        }
+        return builder.build();
+    }
+
+    @PreDestroy
+    public void shutdown()
+    {
+        for (ExecutorService worker : workers) {
+            worker.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns how long an announcer should wait before retrying a rejected
+     * change.
+     */
+    public Duration getRetryAfter()
+    {
+        return retryAfter;
+    }
+
+    /**
+     * Queues the announcement of a node. Returns false if it is rejected
+     * because the queue is full.
+     */
+    public boolean put(Id<Node> nodeId, DynamicAnnouncement announcement)
+    {
+        return submit(nodeId, () -> dynamicStore.put(nodeId, announcement));
+    }
+
+    /**
+     * Queues the announcements of several nodes, grouped by the thread that
+     * handles each node. Returns false if any group is rejected because its
+     * queue is full, in which case the other groups may still be applied.
+     */
+    public boolean putAll(Map<Id<Node>, DynamicAnnouncement> announcements)
+    {
+        List<ImmutableMap.Builder<Id<Node>, DynamicAnnouncement>> groups = new ArrayList<>(workers.size());
+        for (int i = 0; i < workers.size(); i++) {
+            groups.add(ImmutableMap.builder());
+        }
+        announcements.forEach((nodeId, announcement) -> groups.get(getWorkerIndex(nodeId)).put(nodeId, announcement));
+
+        boolean accepted = true;
+        for (int i = 0; i < workers.size(); i++) {
+            Map<Id<Node>, DynamicAnnouncement> group = groups.get(i).build();
+            if (!group.isEmpty()) {
+                accepted &= submit(workers.get(i), () -> dynamicStore.putAll(group));
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * Queues the deletion of a node's announcement. Returns false if it is
+     * rejected because the queue is full.
+     */
+    public boolean delete(Id<Node> nodeId)
+    {
+        return submit(nodeId, () -> dynamicStore.delete(nodeId));
+    }
+
+    @Gauge
+    public long getQueuedChanges()
+    {
+        long queued = 0;
+        for (ExecutorService worker : workers) {
+            if (worker instanceof ThreadPoolExecutor) {
+                queued += ((ThreadPoolExecutor) worker).getQueue().size();
+            }
+        }
+        return queued;
+    }
+
+    @Nested
+    public CounterStat getRejectedChanges()
+    {
+        return rejectedChanges;
+    }
+
+    private boolean submit(Id<Node> nodeId, Runnable change)
+    {
+        return submit(workers.get(getWorkerIndex(nodeId)), change);
+    }
+
+    private boolean submit(ExecutorService worker, Runnable change)
+    {
+        try {
+            worker.execute(() -> {
+                try {
+                    change.run();
+                }
+                catch (RuntimeException e) {
+                    log.error(e, "Error applying dynamic announcement change");
+                }
+            });
+            return true;
+        }
+        catch (RejectedExecutionException e) {
+            rejectedChanges.add(1);
+            return false;
+        }
+    }
+
+    private int getWorkerIndex(Id<Node> nodeId)
+    {
+        return Math.floorMod(nodeId.hashCode(), workers.size());
+    }
+}
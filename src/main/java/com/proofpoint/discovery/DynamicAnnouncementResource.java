@@ -16,43 +16,94 @@
 package com.proofpoint.discovery;
 
 import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableMap;
 import com.proofpoint.node.NodeInfo;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
+import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 import static com.google.common.base.MoreObjects.firstNonNull;
 import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static javax.ws.rs.core.Response.Status.ACCEPTED;
 import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
 import static javax.ws.rs.core.Response.Status.FORBIDDEN;
+import static javax.ws.rs.core.Response.Status.NOT_FOUND;
 
-@Path("/v1/announcement/{node_id}")
+@Path("/v1/announcement")
 public class DynamicAnnouncementResource
 {
+    private static final int TOO_MANY_REQUESTS = 429;
+
     private final NodeInfo nodeInfo;
+    private final DynamicAnnouncementIngester ingester;
     private final DynamicStore dynamicStore;
     private final Set<String> proxyTypes;
 
     @Inject
-    public DynamicAnnouncementResource(DynamicStore dynamicStore, NodeInfo nodeInfo, DiscoveryConfig discoveryConfig)
+    public DynamicAnnouncementResource(DynamicAnnouncementIngester ingester, DynamicStore dynamicStore, NodeInfo nodeInfo, DiscoveryConfig discoveryConfig)
     {
+        this.ingester = ingester;
         this.dynamicStore = dynamicStore;
         this.nodeInfo = nodeInfo;
         proxyTypes = discoveryConfig.getProxyProxiedTypes();
     }
 
     @PUT
+    @Path("{node_id}")
     @Consumes(MediaType.APPLICATION_JSON)
     public Response put(@PathParam("node_id") Id<Node> nodeId, DynamicAnnouncement announcement)
+    {
+        Response rejection = checkAnnouncement(announcement);
+        if (rejection != null) {
+            return rejection;
+        }
+
+        if (!ingester.put(nodeId, withLocation(nodeId, announcement))) {
+            return tooManyRequests();
+        }
+
+        return Response.status(ACCEPTED).build();
+    }
+
+    /**
+     * Announces several nodes at once. The batch is rejected as a whole if
+     * any of its announcements is invalid. When the ingestion queue is full,
+     * part of the batch may have been accepted, and it is safe to retry.
+     */
+    @PUT
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response putAll(DynamicAnnouncementBatch batch)
+    {
+        ImmutableMap.Builder<Id<Node>, DynamicAnnouncement> builder = ImmutableMap.builder();
+        for (Map.Entry<Id<Node>, DynamicAnnouncement> entry : batch.getAnnouncements().entrySet()) {
+            Response rejection = checkAnnouncement(entry.getValue());
+            if (rejection != null) {
+                return rejection;
+            }
+            builder.put(entry.getKey(), withLocation(entry.getKey(), entry.getValue()));
+        }
+
+        if (!ingester.putAll(builder.build())) {
+            return tooManyRequests();
+        }
+
+        return Response.status(ACCEPTED).build();
+    }
+
+    @Nullable
+    private Response checkAnnouncement(DynamicAnnouncement announcement)
     {
         if (!nodeInfo.getEnvironment().equals(announcement.getEnvironment())) {
             return Response.status(BAD_REQUEST)
@@ -75,20 +126,50 @@ public class DynamicAnnouncementResource
             }
         }
 
+        return null;
+    }
+
+    private static DynamicAnnouncement withLocation(Id<Node> nodeId, DynamicAnnouncement announcement)
+    {
         String location = firstNonNull(announcement.getLocation(), "/somewhere/" + nodeId.toString());
 
-        DynamicAnnouncement announcementWithLocation = DynamicAnnouncement.copyOf(announcement)
+        return DynamicAnnouncement.copyOf(announcement)
                 .setLocation(location)
                 .build();
+    }
 
-        dynamicStore.put(nodeId, announcementWithLocation);
+    /**
+     * Extends the lease of the node's current announcement without sending
+     * it again. Responds 404 if there is no announcement to renew, in which
+     * case the node must announce itself with a PUT.
+     */
+    @POST
+    @Path("{node_id}/renew")
+    public Response renew(@PathParam("node_id") Id<Node> nodeId)
+    {
+        if (!dynamicStore.renew(nodeId)) {
+            return Response.status(NOT_FOUND).build();
+        }
 
         return Response.status(ACCEPTED).build();
     }
 
     @DELETE
-    public void delete(@PathParam("node_id") Id<Node> nodeId)
+    @Path("{node_id}")
+    public Response delete(@PathParam("node_id") Id<Node> nodeId)
+    {
+        if (!ingester.delete(nodeId)) {
+            return tooManyRequests();
+        }
+
+        // the deletion is only queued
+        return Response.status(ACCEPTED).build();
+    }
+
+    private Response tooManyRequests()
     {
-        dynamicStore.delete(nodeId);
+        return Response.status(TOO_MANY_REQUESTS)
+                .header("Retry-After", (long) Math.ceil(ingester.getRetryAfter().getValue(SECONDS)))
+                .build();
     }
 }
@@ -0,0 +1,337 @@
+/*
+ * Copyright 2016 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.discovery;
+
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.base.Predicate;
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Table;
+import com.google.common.collect.Table.Cell;
+import com.proofpoint.discovery.store.Entry;
+import com.proofpoint.discovery.store.UpdateListener;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.Iterables.filter;
+import static com.google.common.collect.Maps.immutableEntry;
+import static com.proofpoint.discovery.Service.matchesProperties;
+
+/**
+ * Index of the services in a store's entries by type and pool, and by type
+ * and property value, maintained from the store's update notifications.
+ */
+@ThreadSafe
+class DynamicServiceIndex
+        implements UpdateListener
+{
+    private final Function<Entry, List<Service>> decoder;
+    private final Predicate<Entry> isActive;
+
+    @GuardedBy("this")
+    private final Map<ByteBuffer, IndexedEntry> entries = new HashMap<>();
+    private final ConcurrentMap<String, ConcurrentMap<String, ConcurrentMap<ByteBuffer, IndexedEntry>>> index = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ConcurrentMap<Map.Entry<String, String>, ConcurrentMap<ByteBuffer, IndexedEntry>>> propertyIndex = new ConcurrentHashMap<>();
+
+    DynamicServiceIndex(Function<Entry, List<Service>> decoder, Predicate<Entry> isActive)
+    {
+        this.decoder = checkNotNull(decoder, "decoder is null");
+        this.isActive = checkNotNull(isActive, "isActive is null");
+    }
+
+    @Override
+    public synchronized void notifyInsert(Entry newEntry)
+    {
+        index(newEntry);
+    }
+
+    @Override
+    public synchronized void notifyUpdate(Entry oldEntry, Entry newEntry)
+    {
+        index(newEntry);
+    }
+
+    @Override
+    public synchronized void notifyRemove(Entry oldEntry)
+    {
+        ByteBuffer key = ByteBuffer.wrap(oldEntry.getKey());
+        IndexedEntry current = entries.get(key);
+        if (current != null && current.getEntry().getTimestamp() == oldEntry.getTimestamp()) {
+            unindex(key, current);
+        }
+    }
+
+    public Set<Service> get(String type)
+    {
+        Map<String, ConcurrentMap<ByteBuffer, IndexedEntry>> pools = index.get(type);
+        if (pools == null) {
+            return ImmutableSet.of();
+        }
+
+        ImmutableSet.Builder<Service> builder = ImmutableSet.builder();
+        for (Map.Entry<String, ConcurrentMap<ByteBuffer, IndexedEntry>> pool : pools.entrySet()) {
+            addActive(builder, type, pool.getKey(), pool.getValue());
+        }
+        return builder.build();
+    }
+
+    public Set<Service> get(String type, String pool)
+    {
+        Map<String, ConcurrentMap<ByteBuffer, IndexedEntry>> pools = index.get(type);
+        if (pools == null) {
+            return ImmutableSet.of();
+        }
+
+        ImmutableSet.Builder<Service> builder = ImmutableSet.builder();
+        addActive(builder, type, pool, pools.get(pool));
+        return builder.build();
+    }
+
+    /**
+     * Returns the services of the given type, in the given pool unless it is
+     * null, that have all the given property values. Only the entries with a
+     * service of the type having the least common of the property values, or
+     * with services in the pool if there are fewer of them, are examined.
+     */
+    public Set<Service> get(String type, @Nullable String pool, Map<String, String> properties)
+    {
+        if (properties.isEmpty()) {
+            return pool == null ? get(type) : get(type, pool);
+        }
+
+        Map<String, ConcurrentMap<ByteBuffer, IndexedEntry>> pools = index.get(type);
+        Map<Map.Entry<String, String>, ConcurrentMap<ByteBuffer, IndexedEntry>> typeProperties = propertyIndex.get(type);
+        if (pools == null || typeProperties == null) {
+            return ImmutableSet.of();
+        }
+
+        Map<ByteBuffer, IndexedEntry> candidates = null;
+        if (pool != null) {
+            candidates = pools.get(pool);
+            if (candidates == null) {
+                return ImmutableSet.of();
+            }
+        }
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            Map<ByteBuffer, IndexedEntry> indexedEntries = typeProperties.get(immutableEntry(property.getKey(), property.getValue()));
+            if (indexedEntries == null) {
+                return ImmutableSet.of();
+            }
+            if (candidates == null || indexedEntries.size() < candidates.size()) {
+                candidates = indexedEntries;
+            }
+        }
+
+        Predicate<Service> matchesProperties = matchesProperties(properties);
+        ImmutableSet.Builder<Service> builder = ImmutableSet.builder();
+        for (IndexedEntry indexedEntry : candidates.values()) {
+            if (!isActive.apply(indexedEntry.getEntry())) {
+                continue;
+            }
+            Map<String, List<Service>> entryPools = indexedEntry.getServices().row(type);
+            Iterable<List<Service>> serviceLists = pool == null ? entryPools.values() : Optional.fromNullable(entryPools.get(pool)).asSet();
+            for (List<Service> services : serviceLists) {
+                builder.addAll(filter(services, matchesProperties));
+            }
+        }
+        return builder.build();
+    }
+
+    private void addActive(ImmutableSet.Builder<Service> builder, String type, String pool, Map<ByteBuffer, IndexedEntry> indexedEntries)
+    {
+        if (indexedEntries == null) {
+            return;
+        }
+        for (IndexedEntry indexedEntry : indexedEntries.values()) {
+            if (isActive.apply(indexedEntry.getEntry())) {
+                builder.addAll(indexedEntry.getServices().get(type, pool));
+            }
+        }
+    }
+
+    /**
+     * Indexes the entry in place of the key's current entry. The new entry
+     * is added to all its cells before the key is removed from the cells it
+     * no longer has, so concurrent readers never miss a key that is present
+     * before and after the update.
+     */
+    @GuardedBy("this")
+    private void index(Entry entry)
+    {
+        ByteBuffer key = ByteBuffer.wrap(entry.getKey());
+        IndexedEntry current = entries.get(key);
+        if (current != null && current.getEntry().getTimestamp() > entry.getTimestamp()) {
+            // notifications for the same key can arrive out of order
+            return;
+        }
+
+        if (entry.getValue() == null) {
+            if (current != null) {
+                unindex(key, current);
+            }
+            return;
+        }
+
+        IndexedEntry indexedEntry;
+        if (current != null && Arrays.equals(current.getEntry().getValue(), entry.getValue())) {
+            // a renewal; the services are unchanged
+            indexedEntry = new IndexedEntry(entry, current.getServices());
+        }
+        else {
+            indexedEntry = new IndexedEntry(entry, tabulate(decoder.apply(entry)));
+        }
+
+        entries.put(key, indexedEntry);
+        for (Cell<String, String, List<Service>> cell : indexedEntry.getServices().cellSet()) {
+            index.computeIfAbsent(cell.getRowKey(), type -> new ConcurrentHashMap<>())
+                    .computeIfAbsent(cell.getColumnKey(), pool -> new ConcurrentHashMap<>())
+                    .put(key, indexedEntry);
+        }
+        SetMultimap<String, Map.Entry<String, String>> properties = getProperties(indexedEntry);
+        for (Map.Entry<String, Map.Entry<String, String>> property : properties.entries()) {
+            propertyIndex.computeIfAbsent(property.getKey(), type -> new ConcurrentHashMap<>())
+                    .computeIfAbsent(property.getValue(), ignored -> new ConcurrentHashMap<>())
+                    .put(key, indexedEntry);
+        }
+
+        if (current != null && current.getServices() != indexedEntry.getServices()) {
+            for (Cell<String, String, List<Service>> cell : current.getServices().cellSet()) {
+                if (!indexedEntry.getServices().contains(cell.getRowKey(), cell.getColumnKey())) {
+                    removeFromCell(key, cell.getRowKey(), cell.getColumnKey());
+                }
+            }
+            for (Map.Entry<String, Map.Entry<String, String>> property : getProperties(current).entries()) {
+                if (!properties.containsEntry(property.getKey(), property.getValue())) {
+                    removeFromProperty(key, property.getKey(), property.getValue());
+                }
+            }
+        }
+    }
+
+    private static Table<String, String, List<Service>> tabulate(List<Service> services)
+    {
+        Table<String, String, List<Service>> table = HashBasedTable.create();
+        for (Service service : services) {
+            List<Service> cellServices = table.get(service.getType(), service.getPool());
+            if (cellServices == null) {
+                cellServices = new ArrayList<>();
+                table.put(service.getType(), service.getPool(), cellServices);
+            }
+            cellServices.add(service);
+        }
+
+        ImmutableTable.Builder<String, String, List<Service>> builder = ImmutableTable.builder();
+        for (Cell<String, String, List<Service>> cell : table.cellSet()) {
+            builder.put(cell.getRowKey(), cell.getColumnKey(), ImmutableList.copyOf(cell.getValue()));
+        }
+        return builder.build();
+    }
+
+    @GuardedBy("this")
+    private void unindex(ByteBuffer key, IndexedEntry indexedEntry)
+    {
+        entries.remove(key);
+        for (Cell<String, String, List<Service>> cell : indexedEntry.getServices().cellSet()) {
+            removeFromCell(key, cell.getRowKey(), cell.getColumnKey());
+        }
+        for (Map.Entry<String, Map.Entry<String, String>> property : getProperties(indexedEntry).entries()) {
+            removeFromProperty(key, property.getKey(), property.getValue());
+        }
+    }
+
+    @GuardedBy("this")
+    private void removeFromCell(ByteBuffer key, String type, String pool)
+    {
+        ConcurrentMap<String, ConcurrentMap<ByteBuffer, IndexedEntry>> pools = index.get(type);
+        ConcurrentMap<ByteBuffer, IndexedEntry> indexedEntries = pools.get(pool);
+        indexedEntries.remove(key);
+        if (indexedEntries.isEmpty()) {
+            pools.remove(pool);
+            if (pools.isEmpty()) {
+                index.remove(type);
+            }
+        }
+    }
+
+    @GuardedBy("this")
+    private void removeFromProperty(ByteBuffer key, String type, Map.Entry<String, String> property)
+    {
+        ConcurrentMap<Map.Entry<String, String>, ConcurrentMap<ByteBuffer, IndexedEntry>> typeProperties = propertyIndex.get(type);
+        ConcurrentMap<ByteBuffer, IndexedEntry> indexedEntries = typeProperties.get(property);
+        indexedEntries.remove(key);
+        if (indexedEntries.isEmpty()) {
+            typeProperties.remove(property);
+            if (typeProperties.isEmpty()) {
+                propertyIndex.remove(type);
+            }
+        }
+    }
+
+    /**
+     * Returns the property values of the entry's services by service type.
+     */
+    private static SetMultimap<String, Map.Entry<String, String>> getProperties(IndexedEntry indexedEntry)
+    {
+        ImmutableSetMultimap.Builder<String, Map.Entry<String, String>> builder = ImmutableSetMultimap.builder();
+        for (Cell<String, String, List<Service>> cell : indexedEntry.getServices().cellSet()) {
+            for (Service service : cell.getValue()) {
+                for (Map.Entry<String, String> property : service.getProperties().entrySet()) {
+                    builder.put(cell.getRowKey(), immutableEntry(property.getKey(), property.getValue()));
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    private static class IndexedEntry
+    {
+        private final Entry entry;
+        private final Table<String, String, List<Service>> services;
+
+        IndexedEntry(Entry entry, Table<String, String, List<Service>> services)
+        {
+            this.entry = entry;
+            this.services = services;
+        }
+
+        public Entry getEntry()
+        {
+            return entry;
+        }
+
+        public Table<String, String, List<Service>> getServices()
+        {
+            return services;
+        }
+    }
+}
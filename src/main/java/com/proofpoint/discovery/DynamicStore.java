@@ -15,14 +15,64 @@
  */
 package com.proofpoint.discovery;
 
+import com.proofpoint.units.Duration;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public interface DynamicStore
 {
     void put(Id<Node> nodeId, DynamicAnnouncement announcement);
+
+    /**
+     * Puts the announcements of several nodes at once.
+     */
+    void putAll(Map<Id<Node>, DynamicAnnouncement> announcements);
+
     void delete(Id<Node> nodeId);
 
+    /**
+     * Extends the lease of the node's current announcement without changing
+     * it. Returns false if the node has no active announcement.
+     */
+    boolean renew(Id<Node> nodeId);
+
     Set<Service> getAll();
     Set<Service> get(String type);
     Set<Service> get(String type, String pool);
+
+    /**
+     * Returns the services of the given type, in the given pool unless it is
+     * null, that have all the given property values.
+     */
+    Set<Service> get(String type, @Nullable String pool, Map<String, String> properties);
+
+    long getGeneration();
+
+    /**
+     * Returns the time the services are expected to remain unchanged: the
+     * time until the next announcement expires, and at most the maximum age
+     * of an announcement. Announcements can change sooner.
+     */
+    Duration getTimeToNextExpiration();
+
+    /**
+     * Returns the changes to the services of the given type after the given
+     * generation, or null if they are no longer known.
+     */
+    @Nullable
+    ServiceChanges getChanges(String type, long generation);
+
+    /**
+     * Returns the number of services of each type in each pool.
+     */
+    List<PoolSummary> getSummary();
+
+    /**
+     * Registers a listener that is called after the generation of the store
+     * may have changed. The listener must not block.
+     */
+    void addChangeListener(Runnable listener);
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2016 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.discovery;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ListMultimap;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.List;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Index of a set of services by each level of their hierarchical location,
+ * such as {@code /dc/rack/host}. The services nearest to a location are
+ * found by walking up from the location, without examining the services
+ * in other branches.
+ */
+@Immutable
+class LocationIndex
+{
+    private static final Splitter LOCATION_SPLITTER = Splitter.on('/').omitEmptyStrings();
+
+    private final long generation;
+    private final Set<Service> services;
+    private final ListMultimap<List<String>, Service> servicesByAncestor;
+
+    LocationIndex(long generation, Set<Service> services)
+    {
+        this.generation = generation;
+        this.services = ImmutableSet.copyOf(checkNotNull(services, "services is null"));
+
+        ImmutableListMultimap.Builder<List<String>, Service> builder = ImmutableListMultimap.builder();
+        for (Service service : this.services) {
+            List<String> path = parseLocation(service.getLocation());
+            for (int depth = 1; depth <= path.size(); depth++) {
+                builder.put(path.subList(0, depth), service);
+            }
+        }
+        servicesByAncestor = builder.build();
+    }
+
+    public long getGeneration()
+    {
+        return generation;
+    }
+
+    /**
+     * Returns the services that share at least {@code minDepth} levels of
+     * the given location, those sharing the most levels first.
+     */
+    public Set<Service> nearest(String location, int minDepth)
+    {
+        checkArgument(minDepth >= 0, "minDepth is negative");
+
+        List<String> path = parseLocation(location);
+        ImmutableSet.Builder<Service> builder = ImmutableSet.builder();
+        for (int depth = path.size(); depth >= Math.max(minDepth, 1); depth--) {
+            builder.addAll(servicesByAncestor.get(path.subList(0, depth)));
+        }
+        if (minDepth == 0) {
+            builder.addAll(services);
+        }
+        return builder.build();
+    }
+
+    private static List<String> parseLocation(String location)
+    {
+        return ImmutableList.copyOf(LOCATION_SPLITTER.split(location));
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2016 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.discovery;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableSet;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Set;
+
+import static com.google.common.base.MoreObjects.firstNonNull;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.Sets.union;
+
+/**
+ * The services of the config, dynamic and proxy stores merged into one
+ * immutable set for all services, for each type and for each type and
+ * pool. A merged set is built on first use and reused until the
+ * generation of the stores changes.
+ */
+@ThreadSafe
+class MergedServiceView
+{
+    private static final int MAX_VIEWS = 10_000;
+
+    private final DynamicStore dynamicStore;
+    private final ConfigStore configStore;
+    private final ProxyStore proxyStore;
+    private volatile Views views = new Views(-1);
+
+    MergedServiceView(DynamicStore dynamicStore, ConfigStore configStore, ProxyStore proxyStore)
+    {
+        this.dynamicStore = checkNotNull(dynamicStore, "dynamicStore is null");
+        this.configStore = checkNotNull(configStore, "configStore is null");
+        this.proxyStore = checkNotNull(proxyStore, "proxyStore is null");
+    }
+
+    /**
+     * Returns all services as of a generation, which the caller computes
+     * from the generations of the dynamic and proxy stores.
+     */
+    public Set<Service> getAll(long generation)
+    {
+        return getViews(generation).get(null, null);
+    }
+
+    public Set<Service> get(String type, long generation)
+    {
+        return getViews(generation).get(checkNotNull(type, "type is null"), null);
+    }
+
+    public Set<Service> get(String type, String pool, long generation)
+    {
+        return getViews(generation).get(checkNotNull(type, "type is null"), checkNotNull(pool, "pool is null"));
+    }
+
+    private Views getViews(long generation)
+    {
+        Views current = views;
+        if (current.getGeneration() < generation) {
+            // racing lookups may each replace the views, which only costs a rebuild
+            current = new Views(generation);
+            views = current;
+        }
+        return current;
+    }
+
+    private Set<Service> load(ViewKey key)
+    {
+        if (key.getType() == null) {
+            return ImmutableSet.copyOf(proxyStore.filterAndGetAll(union(configStore.getAll(), dynamicStore.getAll())));
+        }
+        if (key.getPool() == null) {
+            return ImmutableSet.copyOf(firstNonNull(proxyStore.get(key.getType()),
+                    union(configStore.get(key.getType()), dynamicStore.get(key.getType()))));
+        }
+        return ImmutableSet.copyOf(firstNonNull(proxyStore.get(key.getType(), key.getPool()),
+                union(configStore.get(key.getType(), key.getPool()), dynamicStore.get(key.getType(), key.getPool()))));
+    }
+
+    private class Views
+    {
+        private final long generation;
+        private final LoadingCache<ViewKey, Set<Service>> sets = CacheBuilder.newBuilder()
+                .maximumSize(MAX_VIEWS)
+                .build(CacheLoader.from(MergedServiceView.this::load));
+
+        Views(long generation)
+        {
+            this.generation = generation;
+        }
+
+        public long getGeneration()
+        {
+            return generation;
+        }
+
+        public Set<Service> get(@Nullable String type, @Nullable String pool)
+        {
+            return sets.getUnchecked(new AutoValue_MergedServiceView_ViewKey(type, pool));
+        }
+    }
+
+    @AutoValue
+    abstract static class ViewKey
+    {
+        @Nullable
+        abstract String getType();
+
+        @Nullable
+        abstract String getPool();
+    }
+}
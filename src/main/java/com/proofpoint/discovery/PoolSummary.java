@@ -0,0 +1,108 @@
+/*
+ * Copyright 2016 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.discovery;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.util.Objects;
+
+import static com.google.common.base.MoreObjects.toStringHelper;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The number of services of a type in a pool.
+ */
+@Immutable
+public class PoolSummary
+{
+    private final String type;
+    private final String pool;
+    private final int count;
+    private final Long index;
+
+    public PoolSummary(String type, String pool, int count, @Nullable Long index)
+    {
+        this.type = checkNotNull(type, "type is null");
+        this.pool = checkNotNull(pool, "pool is null");
+        this.count = count;
+        this.index = index;
+    }
+
+    @JsonProperty
+    public String getType()
+    {
+        return type;
+    }
+
+    @JsonProperty
+    public String getPool()
+    {
+        return pool;
+    }
+
+    @JsonProperty
+    public int getCount()
+    {
+        return count;
+    }
+
+    /**
+     * Returns the generation of the dynamic store at which the dynamic
+     * services of the pool last changed, or a later generation if the exact
+     * one is no longer known. Returns null for proxied and static services.
+     */
+    @Nullable
+    @JsonProperty
+    public Long getIndex()
+    {
+        return index;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        PoolSummary that = (PoolSummary) o;
+        return count == that.count &&
+                type.equals(that.type) &&
+                pool.equals(that.pool) &&
+                Objects.equals(index, that.index);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(type, pool, count, index);
+    }
+
+    @Override
+    public String toString()
+    {
+        return toStringHelper(this)
+                .add("type", type)
+                .add("pool", pool)
+                .add("count", count)
+                .add("index", index)
+                .toString();
+    }
+}
@@ -17,6 +17,7 @@ package com.proofpoint.discovery;
 
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSet.Builder;
+import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.inject.Injector;
 import com.google.inject.Key;
@@ -41,6 +42,7 @@ import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.google.common.base.Throwables.propagate;
 import static com.proofpoint.concurrent.Threads.daemonThreadsNamed;
@@ -51,6 +53,7 @@ public class ProxyStore
 {
     private final Set<String> proxyTypes;
     private final Map<String, Set<Service>> map;
+    private final AtomicLong generation = new AtomicLong();
 
     private static final Logger log = Logger.get(ProxyStore.class);
 
@@ -119,6 +122,39 @@ public class ProxyStore
         return builder.build();
     }
 
+    public long getGeneration()
+    {
+        return generation.get();
+    }
+
+    /**
+     * Replaces the proxied services of a type. The generation only changes
+     * if they differ from the previous ones, as most refreshes find them
+     * unchanged.
+     */
+    void update(String type, Set<Service> services)
+    {
+        Set<Service> old = map.put(type, services);
+        if (old == null || !isSame(old, services)) {
+            generation.incrementAndGet();
+        }
+    }
+
+    private static boolean isSame(Set<Service> a, Set<Service> b)
+    {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        // services are equal by id alone
+        Map<Id<Service>, Service> servicesById = Maps.uniqueIndex(a, Service::getId);
+        for (Service service : b) {
+            if (!ServiceChanges.isSame(servicesById.get(service.getId()), service)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private class ServiceUpdater
     {
         private final String type;
@@ -168,7 +204,7 @@ public class ProxyStore
                                 descriptor.getLocation(),
                                 descriptor.getProperties()));
                     }
-                    map.put(type, builder.build());
+                    update(type, builder.build());
                     if (serverUp.compareAndSet(false, true)) {
                         log.info("Proxied discovery server connect succeeded for refresh (%s)", type);
                     }
@@ -16,49 +16,75 @@
 package com.proofpoint.discovery;
 
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.proofpoint.discovery.store.ChangeHistory.Change;
 import com.proofpoint.discovery.store.DistributedStore;
 import com.proofpoint.discovery.store.Entry;
-import com.proofpoint.json.JsonCodec;
 import com.proofpoint.units.Duration;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import static com.google.common.base.Preconditions.checkNotNull;
-import static com.google.common.base.Predicates.and;
-import static com.google.common.collect.Iterables.filter;
 import static com.proofpoint.discovery.DynamicServiceAnnouncement.toServiceWith;
-import static com.proofpoint.discovery.Service.matchesPool;
 import static com.proofpoint.discovery.Service.matchesType;
 
 public class ReplicatedDynamicStore
         implements DynamicStore
 {
-    private final JsonCodec<List<Service>> codec = JsonCodec.listJsonCodec(Service.class);
-
     private final DistributedStore store;
     private final Duration maxAge;
+    private final ServiceValueCodec codec;
+    private final DecodedServicesCache decodedServices;
+    private final DynamicServiceIndex index;
+    private volatile Snapshot snapshot = new Snapshot(-1, ImmutableSet.of());
+    private volatile ServiceCounts<ByteBuffer> counts = new ServiceCounts<>();
 
     @Inject
     public ReplicatedDynamicStore(@ForDynamicStore DistributedStore store, DiscoveryConfig config)
     {
         this.store = checkNotNull(store, "store is null");
         this.maxAge = checkNotNull(config, "config is null").getMaxAge();
+        codec = new ServiceValueCodec(config.isCompactValues());
+
+        decodedServices = new DecodedServicesCache(codec);
+        index = new DynamicServiceIndex(decodedServices::get, store::isActive);
+        store.addUpdateListener(decodedServices);
+        store.addUpdateListener(index);
     }
 
     @Override
     public void put(Id<Node> nodeId, DynamicAnnouncement announcement)
+    {
+        byte[] key = nodeId.getBytes();
+        byte[] value = encode(nodeId, announcement);
+
+        store.put(key, value, maxAge);
+    }
+
+    @Override
+    public void putAll(Map<Id<Node>, DynamicAnnouncement> announcements)
+    {
+        Map<ByteBuffer, byte[]> values = new LinkedHashMap<>();
+        announcements.forEach((nodeId, announcement) -> values.put(ByteBuffer.wrap(nodeId.getBytes()), encode(nodeId, announcement)));
+
+        store.putAll(values, maxAge);
+    }
+
+    private byte[] encode(Id<Node> nodeId, DynamicAnnouncement announcement)
     {
         List<Service> services = FluentIterable.from(announcement.getServiceAnnouncements())
                 .transform(toServiceWith(nodeId, announcement.getLocation(), announcement.getPool()))
                 .toList();
 
-        byte[] key = nodeId.getBytes();
-        byte[] value = codec.toJsonBytes(services);
-
-        store.put(key, value, maxAge);
+        return codec.encode(services);
     }
 
     @Override
@@ -67,26 +93,158 @@ public class ReplicatedDynamicStore
         store.delete(nodeId.getBytes());
     }
 
+    @Override
+    public boolean renew(Id<Node> nodeId)
+    {
+        return store.renew(nodeId.getBytes(), maxAge);
+    }
+
     @Override
     public Set<Service> getAll()
     {
-        ImmutableSet.Builder<Service> builder = ImmutableSet.builder();
-        for (Entry entry : store.getAll()) {
-            builder.addAll(codec.fromJson(entry.getValue()));
+        long generation = store.getGeneration();
+        Snapshot current = snapshot;
+        if (current.getGeneration() < generation) {
+            current = updateSnapshot(generation);
         }
+        return current.getServices();
+    }
 
-        return builder.build();
+    private synchronized Snapshot updateSnapshot(long generation)
+    {
+        if (snapshot.getGeneration() < generation) {
+            ImmutableSet.Builder<Service> builder = ImmutableSet.builder();
+            for (Entry entry : store.getAll()) {
+                builder.addAll(decodedServices.get(entry));
+            }
+            snapshot = new Snapshot(generation, builder.build());
+        }
+        return snapshot;
     }
 
     @Override
     public Set<Service> get(String type)
     {
-        return ImmutableSet.copyOf(filter(getAll(), matchesType(type)));
+        return index.get(type);
     }
 
     @Override
     public Set<Service> get(String type, String pool)
     {
-        return ImmutableSet.copyOf(filter(getAll(), and(matchesType(type), matchesPool(pool))));
+        return index.get(type, pool);
+    }
+
+    @Override
+    public Set<Service> get(String type, @Nullable String pool, Map<String, String> properties)
+    {
+        return index.get(type, pool, properties);
+    }
+
+    @Override
+    public long getGeneration()
+    {
+        return store.getGeneration();
+    }
+
+    @Override
+    public Duration getTimeToNextExpiration()
+    {
+        Duration timeToNextExpiration = store.getTimeToNextExpiration();
+        if (timeToNextExpiration == null || timeToNextExpiration.compareTo(maxAge) > 0) {
+            return maxAge;
+        }
+        return timeToNextExpiration;
+    }
+
+    @Override
+    public ServiceChanges getChanges(String type, long generation)
+    {
+        checkNotNull(type, "type is null");
+
+        long currentGeneration = store.getGeneration();
+        if (generation > currentGeneration) {
+            return null;
+        }
+        Collection<Change> changes = store.getChangesSince(generation);
+        if (changes == null) {
+            return null;
+        }
+
+        ServiceChanges.Builder builder = ServiceChanges.builder(matchesType(type));
+        for (Change change : changes) {
+            builder.add(decode(change.getOldEntry()), decode(change.getNewEntry()));
+        }
+        return builder.build(currentGeneration);
+    }
+
+    private List<Service> decode(@Nullable Entry entry)
+    {
+        if (entry == null) {
+            return ImmutableList.of();
+        }
+        return decodedServices.get(entry);
+    }
+
+    @Override
+    public List<PoolSummary> getSummary()
+    {
+        long generation = store.getGeneration();
+        if (counts.getGeneration() < generation) {
+            updateCounts(generation);
+        }
+        return counts.getSummary();
+    }
+
+    private synchronized void updateCounts(long generation)
+    {
+        Collection<Change> changes = store.getChangesSince(counts.getGeneration());
+        if (changes == null) {
+            // too far behind; count every active entry instead
+            ServiceCounts<ByteBuffer> rebuilt = new ServiceCounts<>();
+            for (Entry entry : store.getAll()) {
+                rebuilt.update(ByteBuffer.wrap(entry.getKey()), decodedServices.get(entry), generation);
+            }
+            counts = rebuilt;
+            return;
+        }
+
+        // changes after the generation may have been counted already, which is harmless
+        for (Change change : changes) {
+            counts.update(ByteBuffer.wrap(change.getKey()), decode(change.getNewEntry()), change.getGeneration());
+        }
+        counts.advance(generation);
+    }
+
+    @Override
+    public void addChangeListener(Runnable listener)
+    {
+        // run once the index and decoded services reflect the change
+        store.addChangeListener(checkNotNull(listener, "listener is null"));
+    }
+
+    /**
+     * The services of every active entry as of a generation. The services
+     * may reflect later changes, which only cause an extra rebuild.
+     */
+    private static class Snapshot
+    {
+        private final long generation;
+        private final Set<Service> services;
+
+        Snapshot(long generation, Set<Service> services)
+        {
+            this.generation = generation;
+            this.services = services;
+        }
+
+        public long getGeneration()
+        {
+            return generation;
+        }
+
+        public Set<Service> getServices()
+        {
+            return services;
+        }
     }
 }
@@ -129,6 +129,11 @@ public class Service
         return descriptor -> descriptor.getPool().equals(pool);
     }
 
+    public static Predicate<Service> matchesProperties(final Map<String, String> properties)
+    {
+        return descriptor -> descriptor.getProperties().entrySet().containsAll(properties.entrySet());
+    }
+
     @Override
     public String toString()
     {
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2016 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.discovery;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The services of a store that were added, changed or removed between two
+ * generations of the store.
+ */
+@Immutable
+public class ServiceChanges
+{
+    private final long generation;
+    private final Set<Service> updated;
+    private final Set<Id<Service>> removed;
+
+    public ServiceChanges(long generation, Set<Service> updated, Set<Id<Service>> removed)
+    {
+        this.generation = generation;
+        this.updated = ImmutableSet.copyOf(checkNotNull(updated, "updated is null"));
+        this.removed = ImmutableSet.copyOf(checkNotNull(removed, "removed is null"));
+    }
+
+    /**
+     * Returns the generation of the store the changes go up to.
+     */
+    public long getGeneration()
+    {
+        return generation;
+    }
+
+    /**
+     * Returns the services that were added or changed.
+     */
+    public Set<Service> getUpdated()
+    {
+        return updated;
+    }
+
+    /**
+     * Returns the ids of the services that were removed.
+     */
+    public Set<Id<Service>> getRemoved()
+    {
+        return removed;
+    }
+
+    public static Builder builder(Predicate<Service> filter)
+    {
+        return new Builder(filter);
+    }
+
+    public static class Builder
+    {
+        private final Predicate<Service> filter;
+        private final Map<Id<Service>, Service> updated = new HashMap<>();
+        private final Set<Id<Service>> removed = new HashSet<>();
+
+        private Builder(Predicate<Service> filter)
+        {
+            this.filter = checkNotNull(filter, "filter is null");
+        }
+
+        /**
+         * Adds the net change from one set of services to another. Each call
+         * should cover a different node.
+         */
+        public Builder add(Iterable<Service> oldServices, Iterable<Service> newServices)
+        {
+            Map<Id<Service>, Service> old = new HashMap<>();
+            for (Service service : oldServices) {
+                if (filter.apply(service)) {
+                    old.put(service.getId(), service);
+                }
+            }
+
+            for (Service service : newServices) {
+                if (filter.apply(service) && !isSame(old.remove(service.getId()), service)) {
+                    updated.put(service.getId(), service);
+                }
+            }
+            removed.addAll(old.keySet());
+            return this;
+        }
+
+        public ServiceChanges build(long generation)
+        {
+            // a service that moved between nodes is updated, not removed
+            return new ServiceChanges(generation, ImmutableSet.copyOf(updated.values()), Sets.difference(removed, updated.keySet()));
+        }
+    }
+
+    /**
+     * Returns true if both services are present and have the same content.
+     * Service equality only considers the id.
+     */
+    static boolean isSame(@Nullable Service a, @Nullable Service b)
+    {
+        return a != null && b != null &&
+                a.getId().equals(b.getId()) &&
+                Objects.equals(a.getNodeId(), b.getNodeId()) &&
+                a.getType().equals(b.getType()) &&
+                a.getPool().equals(b.getPool()) &&
+                a.getLocation().equals(b.getLocation()) &&
+                a.getProperties().equals(b.getProperties());
+    }
+}
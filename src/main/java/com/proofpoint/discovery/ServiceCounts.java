@@ -0,0 +1,153 @@
+/*
+ * Copyright 2016 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.discovery;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Multimaps;
+import com.google.common.collect.Sets;
+import com.google.common.collect.Table;
+import com.google.common.collect.Table.Cell;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.Maps.immutableEntry;
+import static com.proofpoint.discovery.ServiceChanges.isSame;
+
+/**
+ * Counts of services by type and pool, maintained from the changes to the
+ * services of each key of a store. Applying the current services of a key
+ * more than once has no further effect, so changes can be replayed.
+ */
+@ThreadSafe
+class ServiceCounts<K>
+{
+    @GuardedBy("this")
+    private final Map<K, List<Service>> servicesByKey = new HashMap<>();
+    @GuardedBy("this")
+    private final Table<String, String, PoolCount> counts = HashBasedTable.create();
+    @GuardedBy("this")
+    private long generation = 0;
+
+    public synchronized long getGeneration()
+    {
+        return generation;
+    }
+
+    /**
+     * Sets the services of a key as of a generation. An empty collection
+     * removes the key.
+     */
+    public synchronized void update(K key, Collection<Service> services, long generation)
+    {
+        checkNotNull(key, "key is null");
+        checkNotNull(services, "services is null");
+
+        List<Service> newServices = ImmutableList.copyOf(services);
+        List<Service> oldServices = newServices.isEmpty() ? servicesByKey.remove(key) : servicesByKey.put(key, newServices);
+        if (oldServices == null) {
+            oldServices = ImmutableList.of();
+        }
+
+        ListMultimap<Map.Entry<String, String>, Service> oldByPool = indexByPool(oldServices);
+        ListMultimap<Map.Entry<String, String>, Service> newByPool = indexByPool(newServices);
+        for (Map.Entry<String, String> typeAndPool : Sets.union(oldByPool.keySet(), newByPool.keySet())) {
+            List<Service> oldPoolServices = oldByPool.get(typeAndPool);
+            List<Service> newPoolServices = newByPool.get(typeAndPool);
+            if (!isSameServices(oldPoolServices, newPoolServices)) {
+                updateCount(typeAndPool.getKey(), typeAndPool.getValue(), newPoolServices.size() - oldPoolServices.size(), generation);
+            }
+        }
+        this.generation = Math.max(this.generation, generation);
+    }
+
+    /**
+     * Moves to a generation without changing any services.
+     */
+    public synchronized void advance(long generation)
+    {
+        this.generation = Math.max(this.generation, generation);
+    }
+
+    public synchronized List<PoolSummary> getSummary()
+    {
+        ImmutableList.Builder<PoolSummary> builder = ImmutableList.builder();
+        for (Cell<String, String, PoolCount> cell : counts.cellSet()) {
+            builder.add(new PoolSummary(cell.getRowKey(), cell.getColumnKey(), cell.getValue().getCount(), cell.getValue().getIndex()));
+        }
+        return builder.build();
+    }
+
+    @GuardedBy("this")
+    private void updateCount(String type, String pool, int delta, long generation)
+    {
+        PoolCount current = counts.get(type, pool);
+        int count = (current == null ? 0 : current.getCount()) + delta;
+        if (count == 0) {
+            counts.remove(type, pool);
+        }
+        else {
+            counts.put(type, pool, new PoolCount(count, generation));
+        }
+    }
+
+    private static ListMultimap<Map.Entry<String, String>, Service> indexByPool(List<Service> services)
+    {
+        return Multimaps.index(services, service -> immutableEntry(service.getType(), service.getPool()));
+    }
+
+    private static boolean isSameServices(List<Service> a, List<Service> b)
+    {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (!isSame(a.get(i), b.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class PoolCount
+    {
+        private final int count;
+        private final long index;
+
+        PoolCount(int count, long index)
+        {
+            this.count = count;
+            this.index = index;
+        }
+
+        public int getCount()
+        {
+            return count;
+        }
+
+        public long getIndex()
+        {
+            return index;
+        }
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright 2016 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.discovery;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableSet;
+import com.proofpoint.json.ObjectMapperProvider;
+import com.proofpoint.log.Logger;
+import com.proofpoint.units.Duration;
+import org.glassfish.jersey.server.ChunkedOutput;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Throwables.propagate;
+import static com.google.common.collect.Sets.union;
+import static com.proofpoint.concurrent.Threads.daemonThreadsNamed;
+import static com.proofpoint.discovery.Service.matchesType;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Streams server-sent events of the services of subscribed types being
+ * added, updated or removed. Each subscriber is first sent an add event for
+ * every current service. The changes of each type are computed once per
+ * store change and written to all of its subscribers, so subscribers do not
+ * hold on to any thread between events. Events are queued per subscriber
+ * and written outside the lock by one thread at a time, so a slow
+ * subscriber holds up at most that thread, and is dropped once its queue
+ * is full.
+ */
+@ThreadSafe
+class ServiceEventBroadcaster
+{
+    private static final Logger log = Logger.get(ServiceEventBroadcaster.class);
+    private static final Duration HEARTBEAT_INTERVAL = new Duration(30, SECONDS);
+    private static final int MAX_QUEUED_EVENTS = 1_000;
+
+    private final DynamicStore dynamicStore;
+    private final ConfigStore configStore;
+    private final ObjectMapper mapper = new ObjectMapperProvider().get();
+    private final ScheduledExecutorService heartbeatExecutor = newSingleThreadScheduledExecutor(daemonThreadsNamed("service-event-heartbeat-%s"));
+
+    @GuardedBy("this")
+    private final Map<String, TypeState> types = new HashMap<>();
+    @GuardedBy("this")
+    private final Set<Subscriber> subscribers = new HashSet<>();
+
+    ServiceEventBroadcaster(DynamicStore dynamicStore, ConfigStore configStore)
+    {
+        this.dynamicStore = checkNotNull(dynamicStore, "dynamicStore is null");
+        this.configStore = checkNotNull(configStore, "configStore is null");
+
+        // writing is the only way to notice a subscriber went away
+        heartbeatExecutor.scheduleWithFixedDelay(this::sendHeartbeat, HEARTBEAT_INTERVAL.toMillis(), HEARTBEAT_INTERVAL.toMillis(), MILLISECONDS);
+    }
+
+    public ChunkedOutput<String> subscribe(Set<String> serviceTypes)
+    {
+        Subscriber subscriber = new Subscriber(ImmutableSet.copyOf(serviceTypes));
+        synchronized (this) {
+            subscribers.add(subscriber);
+
+            StringBuilder events = new StringBuilder();
+            for (String type : subscriber.getTypes()) {
+                TypeState state = types.get(type);
+                if (state == null) {
+                    state = new TypeState(type);
+                    types.put(type, state);
+                }
+                state.getSubscribers().add(subscriber);
+                for (Service service : state.getServices()) {
+                    appendEvent(events, "add", service);
+                }
+            }
+            subscriber.enqueue(events.toString());
+        }
+
+        // queued until the response is committed
+        send(subscriber);
+        return subscriber.getOutput();
+    }
+
+    /**
+     * Sends the changes to the subscribed types since the last refresh.
+     */
+    public void refresh()
+    {
+        Set<Subscriber> pending = new HashSet<>();
+        synchronized (this) {
+            for (TypeState state : ImmutableSet.copyOf(types.values())) {
+                String events = state.update();
+                if (!events.isEmpty()) {
+                    pending.addAll(state.getSubscribers());
+                    for (Subscriber subscriber : state.getSubscribers()) {
+                        subscriber.enqueue(events);
+                    }
+                }
+            }
+        }
+
+        // written outside the lock, so a slow subscriber does not hold up subscribing
+        for (Subscriber subscriber : pending) {
+            send(subscriber);
+        }
+    }
+
+    public void shutdown()
+    {
+        heartbeatExecutor.shutdownNow();
+    }
+
+    private void sendHeartbeat()
+    {
+        Set<Subscriber> pending;
+        synchronized (this) {
+            pending = ImmutableSet.copyOf(subscribers);
+        }
+        for (Subscriber subscriber : pending) {
+            subscriber.enqueue(":\n\n");
+            send(subscriber);
+        }
+    }
+
+    private void send(Subscriber subscriber)
+    {
+        if (subscriber.isOverflowed()) {
+            // too far behind to catch up
+            unsubscribe(subscriber);
+            return;
+        }
+        try {
+            subscriber.flush();
+        }
+        catch (IOException | RuntimeException e) {
+            unsubscribe(subscriber);
+        }
+    }
+
+    private void unsubscribe(Subscriber subscriber)
+    {
+        synchronized (this) {
+            if (!subscribers.remove(subscriber)) {
+                return;
+            }
+            for (String type : subscriber.getTypes()) {
+                TypeState state = types.get(type);
+                if (state != null) {
+                    state.getSubscribers().remove(subscriber);
+                    if (state.getSubscribers().isEmpty()) {
+                        types.remove(type);
+                    }
+                }
+            }
+        }
+
+        try {
+            subscriber.getOutput().close();
+        }
+        catch (IOException e) {
+            log.debug(e, "Error closing event stream");
+        }
+    }
+
+    private void appendEvent(StringBuilder events, String name, Service service)
+    {
+        try {
+            events.append("event: ").append(name).append('\n')
+                    .append("data: ").append(mapper.writeValueAsString(service)).append("\n\n");
+        }
+        catch (JsonProcessingException e) {
+            throw propagate(e);
+        }
+    }
+
+    private class TypeState
+    {
+        private final String type;
+        private final Map<Id<Service>, Service> services = new HashMap<>();
+        private final Set<Subscriber> subscribers = new HashSet<>();
+        private long generation;
+
+        TypeState(String type)
+        {
+            this.type = type;
+
+            generation = dynamicStore.getGeneration();
+            for (Service service : union(configStore.get(type), dynamicStore.get(type))) {
+                services.put(service.getId(), service);
+            }
+        }
+
+        public Iterable<Service> getServices()
+        {
+            return services.values();
+        }
+
+        public Set<Subscriber> getSubscribers()
+        {
+            return subscribers;
+        }
+
+        /**
+         * Applies the changes to the type since the last update and returns
+         * the corresponding events.
+         */
+        public String update()
+        {
+            ServiceChanges changes = dynamicStore.getChanges(type, generation);
+            if (changes == null) {
+                // too far behind; diff against the full set instead
+                long currentGeneration = dynamicStore.getGeneration();
+                changes = ServiceChanges.builder(matchesType(type))
+                        .add(services.values(), union(configStore.get(type), dynamicStore.get(type)))
+                        .build(currentGeneration);
+            }
+            generation = changes.getGeneration();
+
+            StringBuilder events = new StringBuilder();
+            for (Id<Service> id : changes.getRemoved()) {
+                Service removed = services.remove(id);
+                if (removed != null) {
+                    appendEvent(events, "remove", removed);
+                }
+            }
+            for (Service service : changes.getUpdated()) {
+                Service old = services.put(service.getId(), service);
+                if (old == null) {
+                    appendEvent(events, "add", service);
+                }
+                else if (!ServiceChanges.isSame(old, service)) {
+                    // changes can be reported more than once
+                    appendEvent(events, "update", service);
+                }
+            }
+            return events.toString();
+        }
+    }
+
+    private static class Subscriber
+    {
+        private final Set<String> types;
+        private final ChunkedOutput<String> output = new ChunkedOutput<>(String.class);
+        private final BlockingQueue<String> events = new LinkedBlockingQueue<>(MAX_QUEUED_EVENTS);
+        private final AtomicBoolean flushing = new AtomicBoolean();
+        private volatile boolean overflowed;
+
+        Subscriber(Set<String> types)
+        {
+            this.types = types;
+        }
+
+        public Set<String> getTypes()
+        {
+            return types;
+        }
+
+        public ChunkedOutput<String> getOutput()
+        {
+            return output;
+        }
+
+        public void enqueue(String events)
+        {
+            if (!events.isEmpty() && !this.events.offer(events)) {
+                overflowed = true;
+            }
+        }
+
+        public boolean isOverflowed()
+        {
+            return overflowed;
+        }
+
+        /**
+         * Writes the queued events, in the order they were queued. Returns
+         * without waiting if another thread is already writing them.
+         */
+        public void flush()
+                throws IOException
+        {
+            while (!events.isEmpty() && flushing.compareAndSet(false, true)) {
+                try {
+                    for (String next = events.poll(); next != null; next = events.poll()) {
+                        output.write(next);
+                    }
+                }
+                finally {
+                    flushing.set(false);
+                }
+            }
+        }
+    }
+}
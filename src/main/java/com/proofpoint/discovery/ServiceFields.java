@@ -0,0 +1,145 @@
+/*
+ * Copyright 2016 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.discovery;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Writes services directly to a generator, optionally projected to some of
+ * their attributes, such as {@code id} or {@code properties.http}.
+ */
+class ServiceFields
+{
+    private static final String PROPERTIES = "properties";
+    private static final String PROPERTY_PREFIX = PROPERTIES + ".";
+    private static final Set<String> ATTRIBUTES = ImmutableSet.of("id", "nodeId", "type", "pool", "location", PROPERTIES);
+
+    private ServiceFields()
+    {
+    }
+
+    /**
+     * Parses a comma separated list of fields.
+     *
+     * @throws IllegalArgumentException if a field is unknown
+     */
+    static ImmutableSortedSet<String> parseFields(String fields)
+    {
+        ImmutableSortedSet<String> parsed = ImmutableSortedSet.copyOf(Splitter.on(',').trimResults().omitEmptyStrings().split(fields));
+        for (String field : parsed) {
+            checkArgument(ATTRIBUTES.contains(field) || (field.startsWith(PROPERTY_PREFIX) && field.length() > PROPERTY_PREFIX.length()),
+                    "Unknown field: %s", field);
+        }
+        return parsed;
+    }
+
+    /**
+     * Writes the services in the format of {@link Services}, iterating over
+     * them only once. With no fields, every field is written.
+     */
+    static void writeServices(JsonGenerator generator, String environment, Iterable<Service> services, Set<String> fields)
+            throws IOException
+    {
+        checkNotNull(fields, "fields is null");
+
+        // null for all properties
+        Set<String> propertyNames = null;
+        if (!fields.contains(PROPERTIES)) {
+            ImmutableSet.Builder<String> builder = ImmutableSet.builder();
+            for (String field : fields) {
+                if (field.startsWith(PROPERTY_PREFIX)) {
+                    builder.add(field.substring(PROPERTY_PREFIX.length()));
+                }
+            }
+            propertyNames = builder.build();
+        }
+
+        generator.writeStartObject();
+        generator.writeStringField("environment", environment);
+        generator.writeArrayFieldStart("services");
+        for (Service service : services) {
+            if (fields.isEmpty()) {
+                generator.writeObject(service);
+            }
+            else {
+                writeService(generator, service, fields, propertyNames);
+            }
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+
+    private static void writeService(JsonGenerator generator, Service service, Set<String> fields, Set<String> propertyNames)
+            throws IOException
+    {
+        generator.writeStartObject();
+        if (fields.contains("id")) {
+            generator.writeStringField("id", service.getId().toString());
+        }
+        if (fields.contains("nodeId")) {
+            generator.writeFieldName("nodeId");
+            if (service.getNodeId() == null) {
+                generator.writeNull();
+            }
+            else {
+                generator.writeString(service.getNodeId().toString());
+            }
+        }
+        if (fields.contains("type")) {
+            generator.writeStringField("type", service.getType());
+        }
+        if (fields.contains("pool")) {
+            generator.writeStringField("pool", service.getPool());
+        }
+        if (fields.contains("location")) {
+            generator.writeStringField("location", service.getLocation());
+        }
+        if (propertyNames == null || !propertyNames.isEmpty()) {
+            writeProperties(generator, service.getProperties(), propertyNames);
+        }
+        generator.writeEndObject();
+    }
+
+    private static void writeProperties(JsonGenerator generator, Map<String, String> properties, Set<String> propertyNames)
+            throws IOException
+    {
+        generator.writeObjectFieldStart(PROPERTIES);
+        if (propertyNames == null) {
+            for (Map.Entry<String, String> property : properties.entrySet()) {
+                generator.writeStringField(property.getKey(), property.getValue());
+            }
+        }
+        else {
+            for (String name : propertyNames) {
+                String value = properties.get(name);
+                if (value != null) {
+                    generator.writeStringField(name, value);
+                }
+            }
+        }
+        generator.writeEndObject();
+    }
+}
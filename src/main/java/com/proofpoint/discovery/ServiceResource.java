@@ -15,29 +15,93 @@
  */
 package com.proofpoint.discovery;
 
+import com.google.common.base.Splitter;
+import com.google.common.base.Supplier;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
 import com.google.inject.Inject;
+import com.proofpoint.discovery.ServiceResponseCache.Format;
+import com.proofpoint.discovery.ServiceResponseCache.Query;
+import com.proofpoint.discovery.ServiceResponseCache.SerializedServices;
 import com.proofpoint.node.NodeInfo;
+import com.proofpoint.units.Duration;
+import org.glassfish.jersey.server.ChunkedOutput;
 
+import javax.annotation.Nullable;
+import javax.annotation.PreDestroy;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.core.Variant;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import static com.google.common.base.MoreObjects.firstNonNull;
+import static com.google.common.collect.Iterables.getOnlyElement;
 import static com.google.common.collect.Sets.union;
+import static com.proofpoint.discovery.Service.matchesPool;
+import static com.proofpoint.discovery.Service.matchesProperties;
+import static com.proofpoint.discovery.ServiceResponseCache.Query.allServices;
+import static com.proofpoint.discovery.ServiceResponseCache.Query.servicesOf;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static javax.ws.rs.core.HttpHeaders.ACCEPT;
+import static javax.ws.rs.core.HttpHeaders.ACCEPT_ENCODING;
+import static javax.ws.rs.core.HttpHeaders.CONTENT_ENCODING;
+import static javax.ws.rs.core.HttpHeaders.IF_NONE_MATCH;
+import static javax.ws.rs.core.HttpHeaders.VARY;
+import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
 
 
 @Path("/v1/service")
 public class ServiceResource
 {
+    static final String INDEX_HEADER = "X-Discovery-Index";
+    private static final String SMILE = "application/x-jackson-smile";
+    private static final String PROPERTY_PREFIX = "property.";
+    private static final List<Variant> VARIANTS = Variant.mediaTypes(
+            Format.JSON.getMediaType(),
+            Format.SMILE.getMediaType()
+    ).build();
+    private static final Duration DEFAULT_WAIT = new Duration(30, SECONDS);
+    private static final Duration MAX_WAIT = new Duration(5, MINUTES);
+    private static final int MAX_LOCATION_INDEXES = 1_000;
+
     private final DynamicStore dynamicStore;
     private final ConfigStore configStore;
     private final ProxyStore proxyStore;
     private final NodeInfo node;
     private final InitializationTracker initializationTracker;
+    private final ServiceResponseCache responseCache;
+    private final MergedServiceView mergedServices;
+    private final Cache<Query, LocationIndex> locationIndexes = CacheBuilder.newBuilder()
+            .maximumSize(MAX_LOCATION_INDEXES)
+            .build();
+    private final ChangeNotifier changeNotifier = new ChangeNotifier();
+    private final ServiceEventBroadcaster eventBroadcaster;
+    private final String versionPrefix;
 
     @Inject
     public ServiceResource(DynamicStore dynamicStore, ConfigStore configStore, ProxyStore proxyStore, NodeInfo node, InitializationTracker initializationTracker)
@@ -47,35 +111,171 @@ public class ServiceResource
         this.proxyStore = proxyStore;
         this.node = node;
         this.initializationTracker = initializationTracker;
+        responseCache = new ServiceResponseCache(node.getEnvironment());
+        mergedServices = new MergedServiceView(dynamicStore, configStore, proxyStore);
+        // generations restart with the process and differ between servers
+        versionPrefix = node.getNodeId() + ":" + node.getStartTime() + ":";
+
+        eventBroadcaster = new ServiceEventBroadcaster(dynamicStore, configStore);
+        changeNotifier.addWatch(eventBroadcaster::refresh);
+        dynamicStore.addChangeListener(changeNotifier::notifyChange);
     }
 
+    @PreDestroy
+    public void shutdown()
+    {
+        changeNotifier.shutdown();
+        eventBroadcaster.shutdown();
+    }
+
+    /**
+     * Returns the services of a type and pool. Clients that do not need the
+     * whole pool can ask for a stable subset of it with {@code subset=50}
+     * and {@code client=<client id>}.
+     */
     @GET
     @Path("{type}/{pool}")
-    @Produces(MediaType.APPLICATION_JSON)
-    public Services getServices(@PathParam("type") String type, @PathParam("pool") String pool)
+    @Produces({MediaType.APPLICATION_JSON, SMILE})
+    public void getServices(@PathParam("type") String type,
+            @PathParam("pool") String pool,
+            @QueryParam("fields") String fields,
+            @QueryParam("near") String near,
+            @QueryParam("depth") @DefaultValue("0") int depth,
+            @QueryParam("subset") Integer subset,
+            @QueryParam("client") String client,
+            @QueryParam("index") Long index,
+            @QueryParam("wait") String wait,
+            @HeaderParam(ACCEPT_ENCODING) String acceptEncoding,
+            @HeaderParam(IF_NONE_MATCH) String ifNoneMatch,
+            @Context UriInfo uriInfo,
+            @Context Request request,
+            @Suspended AsyncResponse asyncResponse)
     {
         ensureInitialized();
-        return new Services(node.getEnvironment(), firstNonNull(proxyStore.get(type, pool),
-                union(configStore.get(type, pool), dynamicStore.get(type, pool))));
+        Query query = servicesOf(type, pool)
+                .withProperties(parseProperties(uriInfo))
+                .withFields(parseFields(fields))
+                .withNear(near, parseDepth(near, depth))
+                .withSubset(parseSubset(subset, client));
+        respond(query, index, wait, acceptEncoding, ifNoneMatch, request, asyncResponse);
     }
 
     @GET
     @Path("{type}")
-    @Produces(MediaType.APPLICATION_JSON)
-    public Services getTypeServices(@PathParam("type") String type)
+    @Produces({MediaType.APPLICATION_JSON, SMILE})
+    public void getTypeServices(@PathParam("type") String type,
+            @QueryParam("fields") String fields,
+            @QueryParam("near") String near,
+            @QueryParam("depth") @DefaultValue("0") int depth,
+            @QueryParam("subset") Integer subset,
+            @QueryParam("client") String client,
+            @QueryParam("index") Long index,
+            @QueryParam("wait") String wait,
+            @QueryParam("since") String since,
+            @HeaderParam(ACCEPT_ENCODING) String acceptEncoding,
+            @HeaderParam(IF_NONE_MATCH) String ifNoneMatch,
+            @Context UriInfo uriInfo,
+            @Context Request request,
+            @Suspended AsyncResponse asyncResponse)
+    {
+        ensureInitialized();
+        if (since != null) {
+            asyncResponse.resume(getChanges(type, since));
+            return;
+        }
+        Query query = servicesOf(type)
+                .withProperties(parseProperties(uriInfo))
+                .withFields(parseFields(fields))
+                .withNear(near, parseDepth(near, depth))
+                .withSubset(parseSubset(subset, client));
+        respond(query, index, wait, acceptEncoding, ifNoneMatch, request, asyncResponse);
+    }
+
+    /**
+     * Returns all services, or only those of the given types and pool.
+     * Any lookup can be narrowed to services with given property values
+     * with query parameters such as {@code property.shard=7}, and to some
+     * of their fields with {@code fields=id,properties.http}. With
+     * {@code near=/dc/rack/host}, the services nearest that location come
+     * first, and {@code depth=1} only returns those in the same first level
+     * of the location, such as the same data center.
+     */
+    @GET
+    @Produces({MediaType.APPLICATION_JSON, SMILE})
+    public void getAllServices(@QueryParam("type") List<String> types,
+            @QueryParam("pool") String pool,
+            @QueryParam("fields") String fields,
+            @QueryParam("near") String near,
+            @QueryParam("depth") @DefaultValue("0") int depth,
+            @QueryParam("index") Long index,
+            @QueryParam("wait") String wait,
+            @HeaderParam(ACCEPT_ENCODING) String acceptEncoding,
+            @HeaderParam(IF_NONE_MATCH) String ifNoneMatch,
+            @Context UriInfo uriInfo,
+            @Context Request request,
+            @Suspended AsyncResponse asyncResponse)
     {
         ensureInitialized();
-        return new Services(node.getEnvironment(), firstNonNull(proxyStore.get(type),
-                union(configStore.get(type), dynamicStore.get(type))));
+        Query query = (types.isEmpty() && pool == null ? allServices() : servicesOf(types, pool))
+                .withProperties(parseProperties(uriInfo))
+                .withFields(parseFields(fields))
+                .withNear(near, parseDepth(near, depth));
+        respond(query, index, wait, acceptEncoding, ifNoneMatch, request, asyncResponse);
     }
 
+    /**
+     * Streams changes to the services of the given types as server-sent
+     * events. Proxied services are not included.
+     */
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
-    public Services getAllServices()
+    @Produces(MediaType.SERVER_SENT_EVENTS + ";qs=0.1")
+    public ChunkedOutput<String> streamServices(@QueryParam("type") List<String> types)
     {
         ensureInitialized();
-        Set<Service> services = union(configStore.getAll(), dynamicStore.getAll());
-        return new Services(node.getEnvironment(), proxyStore.filterAndGetAll(services));
+        if (types.isEmpty()) {
+            throw new WebApplicationException(BAD_REQUEST);
+        }
+        return eventBroadcaster.subscribe(ImmutableSet.copyOf(types));
+    }
+
+    private ServicesDelta getChanges(String type, String since)
+    {
+        Set<Service> proxyServices = proxyStore.get(type);
+        if (proxyServices != null) {
+            return ServicesDelta.complete(node.getEnvironment(), toVersion(dynamicStore.getGeneration()), proxyServices);
+        }
+
+        Long generation = parseVersion(since);
+        ServiceChanges changes = generation == null ? null : dynamicStore.getChanges(type, generation);
+        if (changes != null) {
+            // static services never change
+            return ServicesDelta.changes(node.getEnvironment(), toVersion(changes.getGeneration()), changes);
+        }
+
+        String version = toVersion(dynamicStore.getGeneration());
+        return ServicesDelta.complete(node.getEnvironment(), version, union(configStore.get(type), dynamicStore.get(type)));
+    }
+
+    private String toVersion(long generation)
+    {
+        return versionPrefix + generation;
+    }
+
+    /**
+     * Returns the generation of a version issued by this server process, or
+     * null if it was issued by another server or before a restart.
+     */
+    private Long parseVersion(String version)
+    {
+        if (!version.startsWith(versionPrefix)) {
+            return null;
+        }
+        try {
+            return Long.parseLong(version.substring(versionPrefix.length()));
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
     }
 
     private void ensureInitialized()
@@ -84,4 +284,278 @@ public class ServiceResource
             throw new WebApplicationException(503);
         }
     }
+
+    /**
+     * Responds immediately unless the client supplied the index of the
+     * response it already has and the query has not changed since. In that
+     * case the response is suspended until the query changes or the wait
+     * elapses, without holding on to the request thread. Indexes differ
+     * between servers and restarts, so a client that also sends the entity
+     * tag of its response is only suspended if that still matches.
+     */
+    private void respond(Query query, Long index, String wait, String acceptEncoding, String ifNoneMatch, Request request, AsyncResponse asyncResponse)
+    {
+        Format format = selectFormat(request);
+        boolean gzip = acceptsGzip(acceptEncoding);
+        Supplier<SerializedServices> lookup = () -> {
+            long generation = getGeneration();
+            return responseCache.get(query, format, generation, () -> loadServices(query, generation));
+        };
+        SerializedServices serialized = lookup.get();
+        if (index == null) {
+            asyncResponse.resume(toResponse(request, format, gzip, serialized));
+            return;
+        }
+
+        Duration waitDuration = parseWait(wait);
+        boolean current = serialized.getIndex() == index &&
+                (ifNoneMatch == null || request.evaluatePreconditions(getEntityTag(gzip, serialized)) != null);
+        if (!current) {
+            asyncResponse.resume(toResponse(request, format, gzip, serialized));
+            return;
+        }
+
+        Runnable watch = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                SerializedServices current = lookup.get();
+                if (!current.getEntityTag().equals(serialized.getEntityTag())) {
+                    changeNotifier.removeWatch(this);
+                    asyncResponse.resume(toResponse(request, format, gzip, current));
+                }
+            }
+        };
+        asyncResponse.setTimeoutHandler(response -> {
+            // proxied types are only picked up here, as the proxy store does not notify of changes
+            changeNotifier.removeWatch(watch);
+            response.resume(toResponse(request, format, gzip, lookup.get()));
+        });
+        asyncResponse.setTimeout(waitDuration.toMillis(), MILLISECONDS);
+        changeNotifier.addWatch(watch);
+
+        // the query may have changed before the watch was added
+        watch.run();
+    }
+
+    private Set<Service> loadServices(Query query, long generation)
+    {
+        Set<Service> services = query.getNear() == null ? loadMatchingServices(query, generation) : loadNearestServices(query, generation);
+        if (query.getSubset() != null) {
+            services = query.getSubset().select(services);
+        }
+        return services;
+    }
+
+    private Set<Service> loadNearestServices(Query query, long generation)
+    {
+        // the index is shared by all the locations the services are looked up near
+        Query servicesQuery = query.withFields(ImmutableSet.of()).withSubset(null).withNear(null, 0);
+        LocationIndex locationIndex = locationIndexes.getIfPresent(servicesQuery);
+        if (locationIndex == null || locationIndex.getGeneration() != generation) {
+            locationIndex = new LocationIndex(generation, loadMatchingServices(servicesQuery, generation));
+            locationIndexes.put(servicesQuery, locationIndex);
+        }
+        return locationIndex.nearest(query.getNear(), query.getMinDepth());
+    }
+
+    /**
+     * Returns the services matching a query. They can be a view over the
+     * merged services rather than a copy, to be iterated once while
+     * serializing them.
+     */
+    private Set<Service> loadMatchingServices(Query query, long generation)
+    {
+        if (query.getTypes().isEmpty()) {
+            Set<Service> services = mergedServices.getAll(generation);
+            if (query.getPool() != null) {
+                services = Sets.filter(services, matchesPool(query.getPool()));
+            }
+            return filterProperties(services, query.getProperties());
+        }
+
+        if (query.getTypes().size() == 1) {
+            return loadMatchingServices(getOnlyElement(query.getTypes()), query.getPool(), query.getProperties(), generation);
+        }
+
+        ImmutableSet.Builder<Service> builder = ImmutableSet.builder();
+        for (String type : query.getTypes()) {
+            builder.addAll(loadMatchingServices(type, query.getPool(), query.getProperties(), generation));
+        }
+        return builder.build();
+    }
+
+    private Set<Service> loadMatchingServices(String type, @Nullable String pool, Map<String, String> properties, long generation)
+    {
+        if (properties.isEmpty()) {
+            return pool == null ? mergedServices.get(type, generation) : mergedServices.get(type, pool, generation);
+        }
+
+        // the property index of the dynamic store beats filtering the merged services
+        if (pool == null) {
+            return firstNonNull(filterProperties(proxyStore.get(type), properties),
+                    union(filterProperties(configStore.get(type), properties), dynamicStore.get(type, null, properties)));
+        }
+        return firstNonNull(filterProperties(proxyStore.get(type, pool), properties),
+                union(filterProperties(configStore.get(type, pool), properties), dynamicStore.get(type, pool, properties)));
+    }
+
+    private static Set<Service> filterProperties(@Nullable Set<Service> services, Map<String, String> properties)
+    {
+        if (services == null || properties.isEmpty()) {
+            return services;
+        }
+        return Sets.filter(services, matchesProperties(properties));
+    }
+
+    private static Set<String> parseFields(@Nullable String fields)
+    {
+        if (fields == null) {
+            return ImmutableSet.of();
+        }
+        try {
+            return ServiceFields.parseFields(fields);
+        }
+        catch (IllegalArgumentException e) {
+            throw new WebApplicationException(e, BAD_REQUEST);
+        }
+    }
+
+    private static int parseDepth(@Nullable String near, int depth)
+    {
+        if (depth < 0 || (depth > 0 && near == null)) {
+            throw new WebApplicationException(BAD_REQUEST);
+        }
+        return depth;
+    }
+
+    @Nullable
+    private static ServiceSubset parseSubset(@Nullable Integer size, @Nullable String client)
+    {
+        if (size == null) {
+            return null;
+        }
+        if (size <= 0 || client == null) {
+            throw new WebApplicationException(BAD_REQUEST);
+        }
+        return ServiceSubset.of(client, size);
+    }
+
+    private static Map<String, String> parseProperties(UriInfo uriInfo)
+    {
+        ImmutableMap.Builder<String, String> builder = ImmutableMap.builder();
+        for (Map.Entry<String, List<String>> parameter : uriInfo.getQueryParameters().entrySet()) {
+            if (!parameter.getKey().startsWith(PROPERTY_PREFIX)) {
+                continue;
+            }
+            String name = parameter.getKey().substring(PROPERTY_PREFIX.length());
+            if (name.isEmpty() || parameter.getValue().size() != 1) {
+                throw new WebApplicationException(BAD_REQUEST);
+            }
+            builder.put(name, parameter.getValue().get(0));
+        }
+        return builder.build();
+    }
+
+    private long getGeneration()
+    {
+        // the config store never changes
+        return dynamicStore.getGeneration() + proxyStore.getGeneration();
+    }
+
+    private static Duration parseWait(String wait)
+    {
+        if (wait == null) {
+            return DEFAULT_WAIT;
+        }
+
+        Duration duration;
+        try {
+            duration = Duration.valueOf(wait);
+        }
+        catch (IllegalArgumentException e) {
+            throw new WebApplicationException(e, BAD_REQUEST);
+        }
+        if (duration.toMillis() < 1) {
+            // a timeout of zero would suspend the response indefinitely
+            throw new WebApplicationException(BAD_REQUEST);
+        }
+        if (duration.compareTo(MAX_WAIT) > 0) {
+            return MAX_WAIT;
+        }
+        return duration;
+    }
+
+    private static Format selectFormat(Request request)
+    {
+        Variant variant = request.selectVariant(VARIANTS);
+        if (variant != null && variant.getMediaType().equals(Format.SMILE.getMediaType())) {
+            return Format.SMILE;
+        }
+        return Format.JSON;
+    }
+
+    private static boolean acceptsGzip(String acceptEncoding)
+    {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : Splitter.on(',').trimResults().omitEmptyStrings().split(acceptEncoding)) {
+            List<String> parts = Splitter.on(';').trimResults().splitToList(coding);
+            String name = parts.get(0);
+            if (!name.equalsIgnoreCase("gzip") && !name.equals("*")) {
+                continue;
+            }
+            boolean refused = false;
+            for (String parameter : parts.subList(1, parts.size())) {
+                if (parameter.matches("[qQ]\\s*=\\s*0(\\.0*)?")) {
+                    refused = true;
+                }
+            }
+            if (!refused) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Builds the response for a representation of the services. Caches may
+     * reuse it until the next announcement is expected to expire, as any
+     * earlier change is not predictable.
+     */
+    private Response toResponse(Request request, Format format, boolean gzip, SerializedServices serialized)
+    {
+        EntityTag entityTag = getEntityTag(gzip, serialized);
+        ResponseBuilder builder = request.evaluatePreconditions(entityTag);
+        if (builder == null) {
+            byte[] data = gzip ? serialized.getGzippedData() : serialized.getData();
+            builder = Response.ok((StreamingOutput) output -> output.write(data), format.getMediaType());
+            if (gzip) {
+                builder.header(CONTENT_ENCODING, "gzip");
+            }
+        }
+        // rounded up, so an expiry less than a second away still allows caching until then
+        long maxAge = (long) Math.ceil(dynamicStore.getTimeToNextExpiration().getValue(SECONDS));
+        CacheControl cacheControl = new CacheControl();
+        cacheControl.setNoTransform(false);
+        cacheControl.setMaxAge((int) maxAge);
+        return builder.tag(entityTag)
+                .cacheControl(cacheControl)
+                .expires(new Date(System.currentTimeMillis() + SECONDS.toMillis(maxAge)))
+                .header(INDEX_HEADER, serialized.getIndex())
+                .header(VARY, ACCEPT + ", " + ACCEPT_ENCODING)
+                .build();
+    }
+
+    private static EntityTag getEntityTag(boolean gzip, SerializedServices serialized)
+    {
+        EntityTag entityTag = serialized.getEntityTag();
+        if (gzip) {
+            // each encoding is a different representation
+            entityTag = new EntityTag(entityTag.getValue() + "-gzip");
+        }
+        return entityTag;
+    }
 }
@@ -0,0 +1,374 @@
+/*
+ * Copyright 2016 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.discovery;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.google.auto.value.AutoValue;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.util.concurrent.SettableFuture;
+import com.proofpoint.json.ObjectMapperProvider;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.MediaType;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.GZIPOutputStream;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Throwables.propagate;
+import static com.google.common.hash.Hashing.murmur3_128;
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
+import static com.proofpoint.discovery.ServiceFields.writeServices;
+
+/**
+ * Holds serialized {@link Services} responses by query and format. A cached
+ * response is reused for as long as the generation of the stores it was
+ * built from does not change. Each response also carries the index of the
+ * query: the generation at which its content last changed.
+ */
+@ThreadSafe
+class ServiceResponseCache
+{
+    private static final int MAX_QUERIES = 10_000;
+
+    private final String environment;
+    private final Map<Format, ConcurrentMap<Query, SerializedServices>> caches;
+    private final Map<Format, ConcurrentMap<Query, Load>> loads;
+
+    ServiceResponseCache(String environment)
+    {
+        this.environment = checkNotNull(environment, "environment is null");
+
+        ImmutableMap.Builder<Format, ConcurrentMap<Query, SerializedServices>> builder = ImmutableMap.builder();
+        for (Format format : Format.values()) {
+            builder.put(format, CacheBuilder.newBuilder()
+                    .maximumSize(MAX_QUERIES)
+                    .<Query, SerializedServices>build()
+                    .asMap());
+        }
+        caches = builder.build();
+
+        ImmutableMap.Builder<Format, ConcurrentMap<Query, Load>> loadsBuilder = ImmutableMap.builder();
+        for (Format format : Format.values()) {
+            loadsBuilder.put(format, new ConcurrentHashMap<>());
+        }
+        loads = loadsBuilder.build();
+    }
+
+    /**
+     * Returns the response to a query. The services are only loaded if the
+     * generation changed, and are then written straight from the loaded
+     * collection, which can be a view over the stores. Concurrent lookups
+     * of the same query wait for a single load rather than each loading it.
+     */
+    public SerializedServices get(Query query, Format format, long generation, Supplier<? extends Iterable<Service>> loader)
+    {
+        ConcurrentMap<Query, SerializedServices> cache = caches.get(format);
+        SerializedServices cached = cache.get(query);
+        if (cached != null && cached.getGeneration() == generation) {
+            return cached;
+        }
+
+        ConcurrentMap<Query, Load> queryLoads = loads.get(format);
+        Load load = new Load(generation);
+        while (true) {
+            Load existing = queryLoads.putIfAbsent(query, load);
+            if (existing == null) {
+                break;
+            }
+            if (existing.getGeneration() >= generation) {
+                // a load of a later generation is just as current
+                return existing.await();
+            }
+            if (queryLoads.replace(query, existing, load)) {
+                break;
+            }
+        }
+
+        try {
+            SerializedServices serialized = load(query, format, generation, loader, cache);
+            load.complete(serialized);
+            return serialized;
+        }
+        catch (RuntimeException | Error e) {
+            load.fail(e);
+            throw e;
+        }
+        finally {
+            queryLoads.remove(query, load);
+        }
+    }
+
+    private SerializedServices load(Query query, Format format, long generation, Supplier<? extends Iterable<Service>> loader, ConcurrentMap<Query, SerializedServices> cache)
+    {
+        // another lookup may have loaded it since the cache was checked
+        SerializedServices cached = cache.get(query);
+        if (cached != null && cached.getGeneration() == generation) {
+            return cached;
+        }
+
+        SerializedServices serialized = new SerializedServices(generation, generation, format.serialize(environment, loader.get(), query.getFields()));
+        if (cached != null && cached.getEntityTag().equals(serialized.getEntityTag())) {
+            // content is unchanged, so the query's index is too
+            serialized = cached.withGeneration(generation);
+        }
+        cache.merge(query, serialized, (oldValue, newValue) -> oldValue.getGeneration() > newValue.getGeneration() ? oldValue : newValue);
+        return serialized;
+    }
+
+    enum Format
+    {
+        JSON(MediaType.APPLICATION_JSON_TYPE, new ObjectMapperProvider().get()),
+        SMILE(new MediaType("application", "x-jackson-smile"), new ObjectMapper(new SmileFactory()));
+
+        private final MediaType mediaType;
+        private final ObjectMapper mapper;
+
+        Format(MediaType mediaType, ObjectMapper mapper)
+        {
+            this.mediaType = mediaType;
+            this.mapper = mapper;
+        }
+
+        public MediaType getMediaType()
+        {
+            return mediaType;
+        }
+
+        private byte[] serialize(String environment, Iterable<Service> services, Set<String> fields)
+        {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            try (JsonGenerator generator = mapper.getFactory().createGenerator(output)) {
+                writeServices(generator, environment, services, fields);
+            }
+            catch (IOException e) {
+                throw propagate(e);
+            }
+            return output.toByteArray();
+        }
+    }
+
+    /**
+     * A load of a query that is in progress, for concurrent lookups to wait on.
+     */
+    private static class Load
+    {
+        private final long generation;
+        private final SettableFuture<SerializedServices> future = SettableFuture.create();
+
+        Load(long generation)
+        {
+            this.generation = generation;
+        }
+
+        public long getGeneration()
+        {
+            return generation;
+        }
+
+        public SerializedServices await()
+        {
+            try {
+                return getUninterruptibly(future);
+            }
+            catch (ExecutionException e) {
+                throw propagate(e.getCause());
+            }
+        }
+
+        public void complete(SerializedServices serialized)
+        {
+            future.set(serialized);
+        }
+
+        public void fail(Throwable throwable)
+        {
+            future.setException(throwable);
+        }
+    }
+
+    @AutoValue
+    abstract static class Query
+    {
+        static Query allServices()
+        {
+            return create(ImmutableSortedSet.of(), null);
+        }
+
+        static Query servicesOf(String type)
+        {
+            return create(ImmutableSortedSet.of(checkNotNull(type, "type is null")), null);
+        }
+
+        static Query servicesOf(String type, String pool)
+        {
+            return create(ImmutableSortedSet.of(checkNotNull(type, "type is null")), checkNotNull(pool, "pool is null"));
+        }
+
+        static Query servicesOf(Iterable<String> types, @Nullable String pool)
+        {
+            return create(ImmutableSortedSet.copyOf(types), pool);
+        }
+
+        private static Query create(ImmutableSortedSet<String> types, @Nullable String pool)
+        {
+            return new AutoValue_ServiceResponseCache_Query(types, pool, ImmutableSortedMap.of(), ImmutableSortedSet.of(), null, null, 0);
+        }
+
+        Query withProperties(Map<String, String> properties)
+        {
+            return new AutoValue_ServiceResponseCache_Query(getTypes(), getPool(), ImmutableSortedMap.copyOf(properties), getFields(), getSubset(), getNear(), getMinDepth());
+        }
+
+        Query withFields(Set<String> fields)
+        {
+            return new AutoValue_ServiceResponseCache_Query(getTypes(), getPool(), getProperties(), ImmutableSortedSet.copyOf(fields), getSubset(), getNear(), getMinDepth());
+        }
+
+        Query withSubset(@Nullable ServiceSubset subset)
+        {
+            return new AutoValue_ServiceResponseCache_Query(getTypes(), getPool(), getProperties(), getFields(), subset, getNear(), getMinDepth());
+        }
+
+        Query withNear(@Nullable String near, int minDepth)
+        {
+            return new AutoValue_ServiceResponseCache_Query(getTypes(), getPool(), getProperties(), getFields(), getSubset(), near, minDepth);
+        }
+
+        /**
+         * Returns the types of the services, or an empty set for all types.
+         */
+        abstract ImmutableSortedSet<String> getTypes();
+
+        @Nullable
+        abstract String getPool();
+
+        /**
+         * Returns the property values the services must all have.
+         */
+        abstract ImmutableSortedMap<String, String> getProperties();
+
+        /**
+         * Returns the service fields to include, or an empty set for all fields.
+         */
+        abstract ImmutableSortedSet<String> getFields();
+
+        /**
+         * Returns the subset of the services to include, or null for all of them.
+         */
+        @Nullable
+        abstract ServiceSubset getSubset();
+
+        /**
+         * Returns the location to order the services by proximity to, or
+         * null to leave them unordered.
+         */
+        @Nullable
+        abstract String getNear();
+
+        /**
+         * Returns the number of levels of the {@link #getNear()} location the
+         * services must share.
+         */
+        abstract int getMinDepth();
+    }
+
+    @Immutable
+    static class SerializedServices
+    {
+        private final long generation;
+        private final long index;
+        private final byte[] data;
+        private final EntityTag entityTag;
+        private final Supplier<byte[]> gzippedData;
+
+        SerializedServices(long generation, long index, byte[] data)
+        {
+            this(generation, index, data, new EntityTag(murmur3_128().hashBytes(data).toString()), Suppliers.memoize(() -> gzip(data)));
+        }
+
+        private SerializedServices(long generation, long index, byte[] data, EntityTag entityTag, Supplier<byte[]> gzippedData)
+        {
+            this.generation = generation;
+            this.index = index;
+            this.data = checkNotNull(data, "data is null");
+            this.entityTag = checkNotNull(entityTag, "entityTag is null");
+            this.gzippedData = checkNotNull(gzippedData, "gzippedData is null");
+        }
+
+        SerializedServices withGeneration(long generation)
+        {
+            return new SerializedServices(generation, index, data, entityTag, gzippedData);
+        }
+
+        public long getGeneration()
+        {
+            return generation;
+        }
+
+        public long getIndex()
+        {
+            return index;
+        }
+
+        public byte[] getData()
+        {
+            return data;
+        }
+
+        public EntityTag getEntityTag()
+        {
+            return entityTag;
+        }
+
+        /**
+         * Returns the data compressed with gzip. It is compressed on first use
+         * and shared with later generations of the same content.
+         */
+        public byte[] getGzippedData()
+        {
+            return gzippedData.get();
+        }
+
+        private static byte[] gzip(byte[] data)
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 4);
+            try (OutputStream output = new GZIPOutputStream(bytes)) {
+                output.write(data);
+            }
+            catch (IOException e) {
+                throw propagate(e);
+            }
+            return bytes.toByteArray();
+        }
+    }
+}
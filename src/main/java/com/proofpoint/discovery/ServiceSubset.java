@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.discovery;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Ordering;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.Iterables.filter;
+import static com.google.common.hash.Hashing.murmur3_128;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A stable subset of services for one client, chosen by rendezvous hashing
+ * of the client with each service id. A client keeps its subset as services
+ * come and go, except for the services that are removed or that rank higher,
+ * and the subsets of many clients are spread evenly over the services. The
+ * selected services keep their order.
+ */
+@AutoValue
+abstract class ServiceSubset
+{
+    static ServiceSubset of(String client, int size)
+    {
+        checkNotNull(client, "client is null");
+        checkArgument(size > 0, "size must be positive");
+        return new AutoValue_ServiceSubset(client, size);
+    }
+
+    abstract String getClient();
+
+    abstract int getSize();
+
+    Set<Service> select(Set<Service> services)
+    {
+        if (services.size() <= getSize()) {
+            return services;
+        }
+
+        List<WeightedService> weighted = new ArrayList<>(services.size());
+        for (Service service : services) {
+            weighted.add(new WeightedService(weight(service), service));
+        }
+
+        Set<Service> selected = new HashSet<>();
+        for (WeightedService service : Ordering.natural().greatestOf(weighted, getSize())) {
+            selected.add(service.getService());
+        }
+
+        // keep the order of the services, which can be by location
+        return ImmutableSet.copyOf(filter(services, selected::contains));
+    }
+
+    private long weight(Service service)
+    {
+        UUID id = service.getId().get();
+        return murmur3_128().newHasher()
+                .putString(getClient(), UTF_8)
+                .putLong(id.getMostSignificantBits())
+                .putLong(id.getLeastSignificantBits())
+                .hash()
+                .asLong();
+    }
+
+    private static class WeightedService
+            implements Comparable<WeightedService>
+    {
+        private final long weight;
+        private final Service service;
+
+        WeightedService(long weight, Service service)
+        {
+            this.weight = weight;
+            this.service = service;
+        }
+
+        public Service getService()
+        {
+            return service;
+        }
+
+        @Override
+        public int compareTo(WeightedService other)
+        {
+            return Long.compare(weight, other.weight);
+        }
+    }
+}
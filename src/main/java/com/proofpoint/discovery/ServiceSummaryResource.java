@@ -0,0 +1,132 @@
+/*
+ * Copyright 2016 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.discovery;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
+import com.proofpoint.node.NodeInfo;
+
+import javax.annotation.concurrent.Immutable;
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.Maps.immutableEntry;
+
+/**
+ * Counts of the services of each type in each pool, for clients that do not
+ * need the services themselves. The counts of the dynamic services are
+ * maintained as the store changes, so a summary does not examine any
+ * announcement.
+ */
+@Path("/v1/summary")
+public class ServiceSummaryResource
+{
+    private static final Comparator<PoolSummary> POOL_ORDERING = Comparator.comparing(PoolSummary::getType).thenComparing(PoolSummary::getPool);
+
+    private final DynamicStore dynamicStore;
+    private final ConfigStore configStore;
+    private final ProxyStore proxyStore;
+    private final NodeInfo node;
+    private final Set<String> proxyTypes;
+    private final InitializationTracker initializationTracker;
+    private volatile StaticSummary staticSummary = new StaticSummary(-1, ImmutableList.of());
+
+    @Inject
+    public ServiceSummaryResource(DynamicStore dynamicStore, ConfigStore configStore, ProxyStore proxyStore, NodeInfo node, DiscoveryConfig config, InitializationTracker initializationTracker)
+    {
+        this.dynamicStore = checkNotNull(dynamicStore, "dynamicStore is null");
+        this.configStore = checkNotNull(configStore, "configStore is null");
+        this.proxyStore = checkNotNull(proxyStore, "proxyStore is null");
+        this.node = checkNotNull(node, "node is null");
+        this.proxyTypes = checkNotNull(config, "config is null").getProxyProxiedTypes();
+        this.initializationTracker = checkNotNull(initializationTracker, "initializationTracker is null");
+    }
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public ServicesSummary getSummary()
+    {
+        if (initializationTracker.isPending()) {
+            throw new WebApplicationException(503);
+        }
+
+        Map<Map.Entry<String, String>, PoolSummary> pools = new HashMap<>();
+        for (PoolSummary pool : getStaticSummary()) {
+            pools.put(immutableEntry(pool.getType(), pool.getPool()), pool);
+        }
+        for (PoolSummary pool : dynamicStore.getSummary()) {
+            if (proxyTypes.contains(pool.getType())) {
+                continue;
+            }
+            pools.merge(immutableEntry(pool.getType(), pool.getPool()), pool, (staticPool, dynamicPool) ->
+                    new PoolSummary(dynamicPool.getType(), dynamicPool.getPool(), staticPool.getCount() + dynamicPool.getCount(), dynamicPool.getIndex()));
+        }
+        return new ServicesSummary(node.getEnvironment(), Ordering.from(POOL_ORDERING).sortedCopy(pools.values()));
+    }
+
+    private List<PoolSummary> getStaticSummary()
+    {
+        // the config store never changes and the proxy store rarely does
+        long generation = proxyStore.getGeneration();
+        StaticSummary current = staticSummary;
+        if (current.getGeneration() != generation) {
+            Map<Map.Entry<String, String>, Integer> counts = new HashMap<>();
+            for (Service service : proxyStore.filterAndGetAll(configStore.getAll())) {
+                counts.merge(immutableEntry(service.getType(), service.getPool()), 1, Integer::sum);
+            }
+            ImmutableList.Builder<PoolSummary> builder = ImmutableList.builder();
+            for (Map.Entry<Map.Entry<String, String>, Integer> count : counts.entrySet()) {
+                builder.add(new PoolSummary(count.getKey().getKey(), count.getKey().getValue(), count.getValue(), null));
+            }
+            current = new StaticSummary(generation, builder.build());
+            staticSummary = current;
+        }
+        return current.getPools();
+    }
+
+    @Immutable
+    private static class StaticSummary
+    {
+        private final long generation;
+        private final List<PoolSummary> pools;
+
+        StaticSummary(long generation, List<PoolSummary> pools)
+        {
+            this.generation = generation;
+            this.pools = pools;
+        }
+
+        public long getGeneration()
+        {
+            return generation;
+        }
+
+        public List<PoolSummary> getPools()
+        {
+            return pools;
+        }
+    }
+}
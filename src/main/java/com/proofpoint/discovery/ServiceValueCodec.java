@@ -0,0 +1,84 @@
+/*
+ * Copyright 2016 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.discovery;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import com.proofpoint.json.JsonCodec;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Encodes the services of a node as the value of a dynamic store entry.
+ * Compact values are Smile behind a format marker byte. Values without the
+ * marker are JSON, as written by earlier versions, and are always readable.
+ */
+@ThreadSafe
+public class ServiceValueCodec
+{
+    private static final byte SMILE_FORMAT = 1;
+    private static final TypeReference<List<Service>> SERVICES_TYPE = new TypeReference<List<Service>>()
+    {
+    };
+
+    private static final JsonCodec<List<Service>> JSON_CODEC = JsonCodec.listJsonCodec(Service.class);
+    private static final ObjectMapper SMILE_MAPPER = new ObjectMapper(new SmileFactory()
+            .enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES))
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    private final boolean compact;
+
+    public ServiceValueCodec(boolean compact)
+    {
+        this.compact = compact;
+    }
+
+    public byte[] encode(List<Service> services)
+    {
+        if (!compact) {
+            return JSON_CODEC.toJsonBytes(services);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(SMILE_FORMAT);
+        try {
+            SMILE_MAPPER.writeValue(out, services);
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("Unable to encode services", e);
+        }
+        return out.toByteArray();
+    }
+
+    public List<Service> decode(byte[] value)
+    {
+        if (value.length > 0 && value[0] == SMILE_FORMAT) {
+            try {
+                return SMILE_MAPPER.readValue(value, 1, value.length - 1, SERVICES_TYPE);
+            }
+            catch (IOException e) {
+                throw new IllegalArgumentException("Invalid services value", e);
+            }
+        }
+        return JSON_CODEC.fromJson(value);
+    }
+}
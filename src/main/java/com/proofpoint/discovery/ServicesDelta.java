@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.discovery;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableSet;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The services that changed since a version. A complete delta holds every
+ * service and replaces whatever the client had.
+ */
+@Immutable
+public class ServicesDelta
+{
+    private final String environment;
+    private final String version;
+    private final boolean complete;
+    private final Set<Service> services;
+    private final Set<Id<Service>> removed;
+
+    private ServicesDelta(String environment, String version, boolean complete, Set<Service> services, Set<Id<Service>> removed)
+    {
+        this.environment = checkNotNull(environment, "environment is null");
+        this.version = checkNotNull(version, "version is null");
+        this.complete = complete;
+        this.services = ImmutableSet.copyOf(checkNotNull(services, "services is null"));
+        this.removed = ImmutableSet.copyOf(checkNotNull(removed, "removed is null"));
+    }
+
+    public static ServicesDelta complete(String environment, String version, Set<Service> services)
+    {
+        return new ServicesDelta(environment, version, true, services, ImmutableSet.of());
+    }
+
+    public static ServicesDelta changes(String environment, String version, ServiceChanges changes)
+    {
+        return new ServicesDelta(environment, version, false, changes.getUpdated(), changes.getRemoved());
+    }
+
+    @JsonProperty
+    public String getEnvironment()
+    {
+        return environment;
+    }
+
+    @JsonProperty
+    public String getVersion()
+    {
+        return version;
+    }
+
+    @JsonProperty
+    public boolean isComplete()
+    {
+        return complete;
+    }
+
+    @JsonProperty
+    public Set<Service> getServices()
+    {
+        return services;
+    }
+
+    @JsonProperty
+    public Set<Id<Service>> getRemoved()
+    {
+        return removed;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ServicesDelta{" +
+                "environment='" + environment + '\'' +
+                ", version='" + version + '\'' +
+                ", complete=" + complete +
+                ", services=" + services +
+                ", removed=" + removed +
+                '}';
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2016 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.discovery;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+@Immutable
+public class ServicesSummary
+{
+    private final String environment;
+    private final List<PoolSummary> pools;
+
+    public ServicesSummary(String environment, List<PoolSummary> pools)
+    {
+        this.environment = checkNotNull(environment, "environment is null");
+        this.pools = ImmutableList.copyOf(checkNotNull(pools, "pools is null"));
+    }
+
+    @JsonProperty
+    public String getEnvironment()
+    {
+        return environment;
+    }
+
+    @JsonProperty
+    public List<PoolSummary> getPools()
+    {
+        return pools;
+    }
+}
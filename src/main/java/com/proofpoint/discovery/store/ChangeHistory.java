@@ -0,0 +1,143 @@
+/*
+ * Copyright 2016 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.discovery.store;
+
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Bounded history of the changes to the active entries of a store, one
+ * change per generation. Once the history is full, the oldest changes are
+ * discarded.
+ */
+@NotThreadSafe
+public class ChangeHistory
+{
+    private final int maxSize;
+    private final ArrayDeque<Change> changes = new ArrayDeque<>();
+    private long discardedGeneration = 0;
+
+    ChangeHistory(int maxSize)
+    {
+        checkArgument(maxSize >= 0, "maxSize is negative");
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Records a change. Either entry is null if the key had no active entry
+     * before or after the change.
+     */
+    void add(long generation, @Nullable Entry oldEntry, @Nullable Entry newEntry)
+    {
+        checkArgument(oldEntry != null || newEntry != null, "oldEntry and newEntry are both null");
+        byte[] key = (newEntry != null ? newEntry : oldEntry).getKey();
+
+        changes.addLast(new Change(key, oldEntry, newEntry, generation));
+        while (changes.size() > maxSize) {
+            discardedGeneration = changes.removeFirst().getGeneration();
+        }
+    }
+
+    /**
+     * Returns the net change to each key changed after the given generation,
+     * or null if some of those changes have been discarded.
+     */
+    @Nullable
+    Collection<Change> getChangesSince(long generation)
+    {
+        if (generation < discardedGeneration) {
+            return null;
+        }
+
+        // walk back to the first change after the generation, then merge forward
+        int count = 0;
+        for (Iterator<Change> iterator = changes.descendingIterator(); iterator.hasNext(); ) {
+            if (iterator.next().getGeneration() <= generation) {
+                break;
+            }
+            ++count;
+        }
+
+        Map<ByteBuffer, Change> merged = new LinkedHashMap<>();
+        Iterator<Change> iterator = changes.iterator();
+        for (int i = changes.size() - count; i > 0; i--) {
+            iterator.next();
+        }
+        while (iterator.hasNext()) {
+            Change change = iterator.next();
+            merged.merge(ByteBuffer.wrap(change.getKey()), change, (first, last) ->
+                    new Change(first.getKey(), first.getOldEntry(), last.getNewEntry(), last.getGeneration()));
+        }
+        return ImmutableList.copyOf(merged.values());
+    }
+
+    @Immutable
+    public static class Change
+    {
+        private final byte[] key;
+        private final Entry oldEntry;
+        private final Entry newEntry;
+        private final long generation;
+
+        Change(byte[] key, @Nullable Entry oldEntry, @Nullable Entry newEntry, long generation)
+        {
+            this.key = checkNotNull(key, "key is null");
+            this.oldEntry = oldEntry;
+            this.newEntry = newEntry;
+            this.generation = generation;
+        }
+
+        public byte[] getKey()
+        {
+            return key;
+        }
+
+        /**
+         * Returns the active entry before the change, or null if there was none.
+         */
+        @Nullable
+        public Entry getOldEntry()
+        {
+            return oldEntry;
+        }
+
+        /**
+         * Returns the active entry after the change, or null if there is none.
+         */
+        @Nullable
+        public Entry getNewEntry()
+        {
+            return newEntry;
+        }
+
+        public long getGeneration()
+        {
+            return generation;
+        }
+    }
+}
@@ -18,15 +18,24 @@ package com.proofpoint.discovery.store;
 import com.google.common.base.Predicate;
 import com.google.common.base.Supplier;
 import com.google.common.collect.Iterables;
+import com.proofpoint.discovery.store.ChangeHistory.Change;
 import com.proofpoint.reporting.Gauge;
 import com.proofpoint.units.Duration;
 import org.joda.time.DateTime;
 import org.weakref.jmx.Managed;
 
+import javax.annotation.Nullable;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import javax.annotation.concurrent.GuardedBy;
 import javax.inject.Inject;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
@@ -52,6 +61,16 @@ public class DistributedStore
     private final ScheduledExecutorService garbageCollector;
     private final AtomicLong lastGcTimestamp = new AtomicLong();
 
+    private final List<UpdateListener> updateListeners = new CopyOnWriteArrayList<>();
+    private final List<Runnable> changeListeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong generation = new AtomicLong();
+    @GuardedBy("this")
+    private final ChangeHistory changeHistory;
+    @GuardedBy("this")
+    private volatile long nextExpiration = 0;
+    @GuardedBy("this")
+    private long lastExpirationCheck;
+
     @Inject
     public DistributedStore(
             String name,
@@ -68,8 +87,12 @@ public class DistributedStore
         checkNotNull(config, "config is null");
         tombstoneMaxAge = config.getTombstoneMaxAge();
         garbageCollectionInterval = config.getGarbageCollectionInterval();
-        
+        changeHistory = new ChangeHistory(config.getChangeHistorySize());
+        lastExpirationCheck = timeSupplier.get().getMillis();
+
         garbageCollector = newSingleThreadScheduledExecutor(daemonThreadsNamed("distributed-store-gc-" + name));
+
+        localStore.addUpdateListener(new GenerationListener());
     }
 
     @PostConstruct
@@ -107,13 +130,21 @@ public class DistributedStore
     {
         long count = 0;
         for (Entry entry : localStore.getAll()) {
-            if (!isExpired(entry) && entry.getValue() != null) {
+            if (isActive(entry)) {
                 ++count;
             }
         }
         return count;
     }
 
+    /**
+     * Returns true if the entry is neither a tombstone nor expired.
+     */
+    public boolean isActive(Entry entry)
+    {
+        return entry.getValue() != null && !isExpired(entry);
+    }
+
     private boolean isExpired(Entry entry)
     {
         long ageInMs = timeSupplier.get().getMillis() - entry.getTimestamp();
@@ -137,8 +168,7 @@ public class DistributedStore
 
         Entry entry = new Entry(key, value, now, null);
 
-        localStore.put(entry);
-        remoteStore.put(entry);
+        putEntry(entry);
     }
     
     public void put(byte[] key, byte[] value, Duration maxAge)
@@ -151,8 +181,95 @@ public class DistributedStore
 
         Entry entry = new Entry(key, value, now, maxAge.toMillis());
 
+        putEntry(entry);
+    }
+
+    /**
+     * Extends the max age of an active entry without changing its value.
+     * Returns false if there is no active entry for the key.
+     */
+    public boolean renew(byte[] key, Duration maxAge)
+    {
+        checkNotNull(key, "key is null");
+        checkNotNull(maxAge, "maxAge is null");
+
+        long now = timeSupplier.get().getMillis();
+
+        while (true) {
+            Entry entry = localStore.get(key);
+            if (entry == null || !isActive(entry)) {
+                return false;
+            }
+            if (entry.getTimestamp() >= now) {
+                // changed no earlier than this renewal
+                return true;
+            }
+
+            Entry renewed = new Entry(key, entry.getValue(), now, maxAge.toMillis());
+
+            // a delete or put since the entry was read must not be undone
+            if (localStore.replace(entry, renewed)) {
+                remoteStore.touch(renewed);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Puts several values with the same max age and replicates them as one
+     * batch. The values are keyed by their wrapped key.
+     */
+    public void putAll(Map<ByteBuffer, byte[]> values, Duration maxAge)
+    {
+        checkNotNull(values, "values is null");
+        checkNotNull(maxAge, "maxAge is null");
+
+        long now = timeSupplier.get().getMillis();
+
+        List<Entry> entries = new ArrayList<>(values.size());
+        List<Entry> touchedEntries = new ArrayList<>();
+        for (Map.Entry<ByteBuffer, byte[]> value : values.entrySet()) {
+            checkNotNull(value.getValue(), "value is null");
+
+            Entry entry = new Entry(value.getKey().array(), value.getValue(), now, maxAge.toMillis());
+
+            if (putLocal(entry)) {
+                touchedEntries.add(entry);
+            }
+            else {
+                entries.add(entry);
+            }
+        }
+
+        if (!entries.isEmpty()) {
+            remoteStore.putAll(entries);
+        }
+        if (!touchedEntries.isEmpty()) {
+            remoteStore.touchAll(touchedEntries);
+        }
+    }
+
+    private void putEntry(Entry entry)
+    {
+        if (putLocal(entry)) {
+            remoteStore.touch(entry);
+        }
+        else {
+            remoteStore.put(entry);
+        }
+    }
+
+    /**
+     * Puts the entry in the local store. Returns true if it only renews an
+     * active entry with the same value, which the remote stores already have
+     * unless they missed it, in which case the replicator catches them up.
+     */
+    private boolean putLocal(Entry entry)
+    {
+        Entry old = localStore.get(entry.getKey());
+
         localStore.put(entry);
-        remoteStore.put(entry);
+        return old != null && isActive(old) && Arrays.equals(old.getValue(), entry.getValue());
     }
 
     public byte[] get(byte[] key)
@@ -181,11 +298,130 @@ public class DistributedStore
         remoteStore.put(entry);
     }
 
+    /**
+     * Registers a listener for changes to the local store, including those
+     * received through replication and garbage collection. The listener is
+     * first notified of every entry already present. It is notified of each
+     * change before the generation changes.
+     */
+    public void addUpdateListener(UpdateListener updateListener)
+    {
+        checkNotNull(updateListener, "updateListener is null");
+
+        // no change can be delivered before the entry it replaces is replayed
+        localStore.runExclusively(() -> {
+            updateListeners.add(updateListener);
+            for (Entry entry : localStore.getAll()) {
+                updateListener.notifyInsert(entry);
+            }
+        });
+    }
+
+    /**
+     * Registers a listener run whenever a change to the local store changes
+     * the generation, after the update listeners have been notified of it.
+     */
+    public void addChangeListener(Runnable changeListener)
+    {
+        changeListeners.add(checkNotNull(changeListener, "changeListener is null"));
+    }
+
     public Iterable<Entry> getAll()
     {
         return Iterables.filter(localStore.getAll(), and(not(expired()), not(tombstone())));
     }
 
+    /**
+     * Returns the generation of the store's content. The generation changes
+     * whenever an active entry is added, removed, changed or expires.
+     * Renewing an entry without changing its value does not change it.
+     */
+    public long getGeneration()
+    {
+        if (timeSupplier.get().getMillis() > nextExpiration) {
+            updateNextExpiration();
+        }
+        return generation.get();
+    }
+
+    /**
+     * Returns the time until the next active entry expires, or null if none
+     * of them expires. Entries can be renewed in the meantime, so the next
+     * change of generation is at the earliest this far off unless an entry is
+     * added, changed or removed first.
+     */
+    @Nullable
+    public Duration getTimeToNextExpiration()
+    {
+        // detect expirations first
+        getGeneration();
+
+        long expiration = nextExpiration;
+        if (expiration == Long.MAX_VALUE) {
+            return null;
+        }
+        return new Duration(Math.max(0, expiration - timeSupplier.get().getMillis()), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the net change to each active entry after the given generation,
+     * or null if the change history no longer goes back that far.
+     */
+    @Nullable
+    public Collection<Change> getChangesSince(long generation)
+    {
+        // detect expirations first
+        getGeneration();
+
+        synchronized (this) {
+            return changeHistory.getChangesSince(generation);
+        }
+    }
+
+    private synchronized void updateNextExpiration()
+    {
+        long now = timeSupplier.get().getMillis();
+        if (now <= nextExpiration) {
+            return;
+        }
+
+        long earliest = Long.MAX_VALUE;
+        for (Entry entry : localStore.getAll()) {
+            if (entry.getValue() == null) {
+                continue;
+            }
+
+            long expiration = getExpiration(entry);
+            if (expiration >= now) {
+                earliest = Math.min(earliest, expiration);
+            }
+            else if (expiration >= lastExpirationCheck) {
+                // active at the last check, expired since
+                recordChange(entry, null);
+            }
+        }
+        lastExpirationCheck = now;
+        nextExpiration = earliest;
+    }
+
+    private synchronized void recordChange(@Nullable Entry oldEntry, @Nullable Entry newEntry)
+    {
+        changeHistory.add(generation.incrementAndGet(), oldEntry, newEntry);
+    }
+
+    private synchronized void trackExpiration(Entry entry)
+    {
+        nextExpiration = Math.min(nextExpiration, getExpiration(entry));
+    }
+
+    private static long getExpiration(Entry entry)
+    {
+        if (entry.getMaxAgeInMs() == null) {
+            return Long.MAX_VALUE;
+        }
+        return entry.getTimestamp() + entry.getMaxAgeInMs();
+    }
+
     private Predicate<Entry> expired()
     {
         return this::isExpired;
@@ -195,4 +431,121 @@ public class DistributedStore
     {
         return entry -> entry.getValue() == null;
     }
+
+    /**
+     * Notifies the registered update listeners of a change to the local
+     * store before recording it, so anything derived from the store is up to
+     * date once the new generation is visible, and then runs the change
+     * listeners if the generation changed.
+     */
+    private class GenerationListener
+            implements UpdateListener
+    {
+        @Override
+        public void notifyInsert(Entry newEntry)
+        {
+            boolean changed;
+            try {
+                for (UpdateListener updateListener : updateListeners) {
+                    updateListener.notifyInsert(newEntry);
+                }
+            }
+            finally {
+                changed = recordInsert(newEntry);
+            }
+            if (changed) {
+                notifyChangeListeners();
+            }
+        }
+
+        @Override
+        public void notifyUpdate(Entry oldEntry, Entry newEntry)
+        {
+            boolean changed;
+            try {
+                for (UpdateListener updateListener : updateListeners) {
+                    updateListener.notifyUpdate(oldEntry, newEntry);
+                }
+            }
+            finally {
+                changed = recordUpdate(oldEntry, newEntry);
+            }
+            if (changed) {
+                notifyChangeListeners();
+            }
+        }
+
+        @Override
+        public void notifyRemove(Entry oldEntry)
+        {
+            boolean changed;
+            try {
+                for (UpdateListener updateListener : updateListeners) {
+                    updateListener.notifyRemove(oldEntry);
+                }
+            }
+            finally {
+                changed = recordRemove(oldEntry);
+            }
+            if (changed) {
+                notifyChangeListeners();
+            }
+        }
+
+        private boolean recordInsert(Entry newEntry)
+        {
+            synchronized (DistributedStore.this) {
+                if (!isActive(newEntry)) {
+                    return false;
+                }
+                trackExpiration(newEntry);
+                recordChange(null, newEntry);
+                return true;
+            }
+        }
+
+        private boolean recordUpdate(Entry oldEntry, Entry newEntry)
+        {
+            synchronized (DistributedStore.this) {
+                boolean oldRecorded = isRecorded(oldEntry);
+                boolean newActive = isActive(newEntry);
+                if (newActive) {
+                    trackExpiration(newEntry);
+                }
+                if (oldRecorded != newActive || (newActive && !Arrays.equals(oldEntry.getValue(), newEntry.getValue()))) {
+                    recordChange(oldRecorded ? oldEntry : null, newActive ? newEntry : null);
+                    return true;
+                }
+                return false;
+            }
+        }
+
+        private boolean recordRemove(Entry oldEntry)
+        {
+            synchronized (DistributedStore.this) {
+                if (!isRecorded(oldEntry)) {
+                    return false;
+                }
+                recordChange(oldEntry, null);
+                return true;
+            }
+        }
+
+        /**
+         * Returns true if the entry is part of the recorded content: it is
+         * active, or it expired after the last check and its expiry is yet
+         * to be recorded.
+         */
+        private boolean isRecorded(Entry entry)
+        {
+            return entry.getValue() != null && getExpiration(entry) >= lastExpirationCheck;
+        }
+
+        private void notifyChangeListeners()
+        {
+            for (Runnable changeListener : changeListeners) {
+                changeListener.run();
+            }
+        }
+    }
 }
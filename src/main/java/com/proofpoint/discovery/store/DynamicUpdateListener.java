@@ -18,11 +18,10 @@ package com.proofpoint.discovery.store;
 import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableSet;
 import com.proofpoint.discovery.Service;
-import com.proofpoint.json.JsonCodec;
+import com.proofpoint.discovery.ServiceValueCodec;
 import org.joda.time.DateTime;
 
 import javax.inject.Inject;
-import java.util.List;
 import java.util.Set;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -33,7 +32,8 @@ import static java.util.concurrent.TimeUnit.MILLISECONDS;
 public class DynamicUpdateListener
     implements UpdateListener
 {
-    private static final JsonCodec<List<Service>> CODEC = JsonCodec.listJsonCodec(Service.class);
+    // decodes values in either format
+    private static final ServiceValueCodec CODEC = new ServiceValueCodec(true);
 
     private final Supplier<DateTime> timeSupplier;
     private final DynamicRenewals dynamicRenewals;
@@ -65,6 +65,6 @@ public class DynamicUpdateListener
 
     private static Set<String> getTypes(Entry newEntry)
     {
-        return ImmutableSet.copyOf(transform(CODEC.fromJson(newEntry.getValue()), Service::getType));
+        return ImmutableSet.copyOf(transform(CODEC.decode(newEntry.getValue()), Service::getType));
     }
 }
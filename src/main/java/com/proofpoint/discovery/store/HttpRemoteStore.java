@@ -35,6 +35,7 @@ import com.proofpoint.units.Duration;
 import org.weakref.jmx.Managed;
 
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
@@ -69,7 +70,7 @@ class HttpRemoteStore
     private final int queueSize;
     private final Duration updateInterval;
 
-    private final ConcurrentMap<String, BatchProcessor<Entry>> processors = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, BatchProcessor<Update>> processors = new ConcurrentHashMap<>();
     private final String name;
     private final ServiceSelector selector;
     private final HttpClient httpClient;
@@ -152,9 +153,9 @@ class HttpRemoteStore
         Set<String> hostPorts = ImmutableSet.copyOf(transform(descriptors, getHostPortFunction()));
 
         // remove old ones
-        Iterator<Map.Entry<String, BatchProcessor<Entry>>> iterator = processors.entrySet().iterator();
+        Iterator<Map.Entry<String, BatchProcessor<Update>>> iterator = processors.entrySet().iterator();
         while (iterator.hasNext()) {
-            Map.Entry<String, BatchProcessor<Entry>> entry = iterator.next();
+            Map.Entry<String, BatchProcessor<Update>> entry = iterator.next();
 
             if (!hostPorts.contains(entry.getKey())) {
                 iterator.remove();
@@ -169,7 +170,7 @@ class HttpRemoteStore
 
         for (ServiceDescriptor descriptor : newDescriptors) {
             String hostPort = getHostPort(descriptor);
-            BatchProcessor<Entry> processor = new BatchProcessor<>(hostPort,
+            BatchProcessor<Update> processor = new BatchProcessor<>(hostPort,
                     new MyBatchHandler(name, descriptor, httpClient),
                     maxBatchSize,
                     queueSize);
@@ -201,62 +202,165 @@ class HttpRemoteStore
     @Override
     public void put(Entry entry)
     {
-        for (BatchProcessor<Entry> processor : processors.values()) {
-            processor.put(entry);
+        Update update = new Update(entry, false);
+        for (BatchProcessor<Update> processor : processors.values()) {
+            processor.put(update);
+        }
+    }
+
+    @Override
+    public void touch(Entry entry)
+    {
+        Update update = new Update(entry, true);
+        for (BatchProcessor<Update> processor : processors.values()) {
+            processor.put(update);
+        }
+    }
+
+    @Override
+    public void putAll(Collection<Entry> entries)
+    {
+        enqueue(entries, false);
+    }
+
+    @Override
+    public void touchAll(Collection<Entry> entries)
+    {
+        enqueue(entries, true);
+    }
+
+    private void enqueue(Collection<Entry> entries, boolean touch)
+    {
+        List<Update> updates = ImmutableList.copyOf(transform(entries, entry -> new Update(entry, touch)));
+        for (BatchProcessor<Update> processor : processors.values()) {
+            for (Update update : updates) {
+                processor.put(update);
+            }
+        }
+    }
+
+    private static class Update
+    {
+        private final Entry entry;
+        private final boolean touch;
+
+        Update(Entry entry, boolean touch)
+        {
+            this.entry = entry;
+            this.touch = touch;
+        }
+
+        public Entry getEntry()
+        {
+            return entry;
+        }
+
+        public boolean isTouch()
+        {
+            return touch;
         }
     }
 
     private static class MyBatchHandler
-            implements BatchProcessor.BatchHandler<Entry>
+            implements BatchProcessor.BatchHandler<Update>
     {
         private static final JsonCodec<Collection<Entry>> ENTRIES_CODEC = jsonCodec(new TypeToken<Collection<Entry>>()
         {
         });
+        private static final JsonCodec<Collection<Touch>> TOUCHES_CODEC = jsonCodec(new TypeToken<Collection<Touch>>()
+        {
+        });
+        private static final Duration TOUCH_PROBE_INTERVAL = new Duration(5, TimeUnit.MINUTES);
 
         private final URI uri;
+        private final URI touchUri;
         private final HttpClient httpClient;
 
+        // only accessed by the batch processor's thread
+        private boolean touchSupported = true;
+        private long touchProbeTime;
+
         MyBatchHandler(String name, ServiceDescriptor descriptor, HttpClient httpClient)
         {
             this.httpClient = httpClient;
 
             // TODO: build URI from resource class
             uri = URI.create(descriptor.getProperties().get("http") + "/v1/store/" + name);
+            touchUri = URI.create(uri + "/touch");
         }
 
         @Override
-        public void processBatch(final Collection<Entry> entries)
+        public void processBatch(final Collection<Update> updates)
+                throws Exception
+        {
+            List<Entry> entries = new ArrayList<>();
+            List<Entry> touchedEntries = new ArrayList<>();
+            if (!touchSupported && System.nanoTime() - touchProbeTime >= 0) {
+                // the remote server may have been upgraded since
+                touchSupported = true;
+            }
+
+            for (Update update : updates) {
+                if (update.isTouch() && touchSupported) {
+                    touchedEntries.add(update.getEntry());
+                }
+                else {
+                    entries.add(update.getEntry());
+                }
+            }
+
+            if (!touchedEntries.isEmpty()) {
+                List<Touch> touches = ImmutableList.copyOf(transform(touchedEntries, Touch::of));
+                int statusCode = post(touchUri, TOUCHES_CODEC, touches);
+                if (statusCode == 404) {
+                    // the remote server predates touches
+                    touchSupported = false;
+                    touchProbeTime = System.nanoTime() + TOUCH_PROBE_INTERVAL.roundTo(TimeUnit.NANOSECONDS);
+                    entries.addAll(touchedEntries);
+                }
+                else if (statusCode >= 300) {
+                    throw new Exception("Remote server returned " + statusCode + " status code");
+                }
+            }
+
+            if (!entries.isEmpty()) {
+                int statusCode = post(uri, ENTRIES_CODEC, entries);
+                if (statusCode >= 300) {
+                    throw new Exception("Remote server returned " + statusCode + " status code");
+                }
+            }
+        }
+
+        private <T> int post(URI uri, JsonCodec<T> codec, T body)
                 throws Exception
         {
             final Request request = Request.Builder.preparePost()
                     .setUri(uri)
                     .setHeader("Content-Type", "application/x-jackson-smile")
-                    .setBodySource(smileBodyGenerator(ENTRIES_CODEC, entries))
+                    .setBodySource(smileBodyGenerator(codec, body))
                     .build();
 
             try {
-                httpClient.execute(request, new ResponseHandler<Void, Exception>()
+                return httpClient.execute(request, new ResponseHandler<Integer, Exception>()
                 {
                     @Override
-                    public Void handleException(Request request, Exception exception)
+                    public Integer handleException(Request request, Exception exception)
                             throws Exception
                     {
                         throw exception;
                     }
 
                     @Override
-                    public Void handle(Request request, Response response)
-                            throws Exception
+                    public Integer handle(Request request, Response response)
                     {
-                        if (response.getStatusCode() >= 300) {
-                            throw new Exception("Remote server returned " + response.getStatusCode() + " status code");
-                        }
-                        return null;
+                        return response.getStatusCode();
                     }
                 });
             }
             catch (InterruptedException e) {
+                // the batch processor is shutting down
                 Thread.currentThread().interrupt();
+                throw e;
             }
         }
     }
@@ -20,8 +20,12 @@ import com.proofpoint.discovery.DiscoveryConfig;
 
 import javax.inject.Inject;
 import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -29,7 +33,9 @@ public class InMemoryStore
 {
     private final ConcurrentMap<ByteBuffer, Entry> map = new ConcurrentHashMap<>();
     private final long maxAgeInMs;
-    private UpdateListener updateListener = null;
+    private final List<UpdateListener> updateListeners = new CopyOnWriteArrayList<>();
+    // held for reading while changing an entry and notifying the listeners
+    private final ReadWriteLock changeLock = new ReentrantReadWriteLock();
 
     @Inject
     public InMemoryStore(DiscoveryConfig config)
@@ -42,12 +48,38 @@ public class InMemoryStore
         maxAgeInMs = Long.MAX_VALUE;
     }
 
-    public void setUpdateListener(UpdateListener updateListener)
+    public void addUpdateListener(UpdateListener updateListener)
     {
-        this.updateListener = updateListener;
+        updateListeners.add(checkNotNull(updateListener, "updateListener is null"));
+    }
+
+    /**
+     * Runs the action while no entry is being changed, so it sees each
+     * change either not at all or together with its listener notifications.
+     */
+    public void runExclusively(Runnable action)
+    {
+        changeLock.writeLock().lock();
+        try {
+            action.run();
+        }
+        finally {
+            changeLock.writeLock().unlock();
+        }
     }
 
     public boolean put(Entry entry)
+    {
+        changeLock.readLock().lock();
+        try {
+            return putEntry(entry);
+        }
+        finally {
+            changeLock.readLock().unlock();
+        }
+    }
+
+    private boolean putEntry(Entry entry)
     {
         if (maxAgeInMs != Long.MAX_VALUE && entry.getMaxAgeInMs() == null) {
             entry = new Entry(entry.getKey(),
@@ -61,6 +93,9 @@ public class InMemoryStore
         while (true) {
             Entry old = map.putIfAbsent(key, entry);
             if (old == null) {
+                for (UpdateListener updateListener : updateListeners) {
+                    updateListener.notifyInsert(entry);
+                }
                 return true;
             }
 
@@ -70,7 +105,7 @@ public class InMemoryStore
             }
 
             if (map.replace(key, old, entry)) {
-                if (updateListener != null) {
+                for (UpdateListener updateListener : updateListeners) {
                     updateListener.notifyUpdate(old, entry);
                 }
                 return true;
@@ -78,6 +113,30 @@ public class InMemoryStore
         }
     }
 
+    /**
+     * Replaces the entry for the key if it is still the expected one.
+     * Returns false if it has changed or been removed since.
+     */
+    public boolean replace(Entry expected, Entry entry)
+    {
+        checkNotNull(expected, "expected is null");
+        checkNotNull(entry, "entry is null");
+
+        changeLock.readLock().lock();
+        try {
+            if (!map.replace(ByteBuffer.wrap(entry.getKey()), expected, entry)) {
+                return false;
+            }
+            for (UpdateListener updateListener : updateListeners) {
+                updateListener.notifyUpdate(expected, entry);
+            }
+            return true;
+        }
+        finally {
+            changeLock.readLock().unlock();
+        }
+    }
+
     public Entry get(byte[] key)
     {
         checkNotNull(key, "key is null");
@@ -89,20 +148,33 @@ public class InMemoryStore
     {
         checkNotNull(key, "key is null");
 
+        changeLock.readLock().lock();
+        try {
+            return deleteEntry(key, timestamp);
+        }
+        finally {
+            changeLock.readLock().unlock();
+        }
+    }
+
+    private boolean deleteEntry(byte[] key, long timestamp)
+    {
         ByteBuffer wrappedKey = ByteBuffer.wrap(key);
 
-        boolean done = false;
-        while (!done) {
+        while (true) {
             Entry old = map.get(wrappedKey);
 
             if (old == null || isNewer(old, timestamp)) {
                 return false;
             }
-            else {
-                done = map.remove(wrappedKey, old);
+
+            if (map.remove(wrappedKey, old)) {
+                for (UpdateListener updateListener : updateListeners) {
+                    updateListener.notifyRemove(old);
+                }
+                return true;
             }
         }
-        return true;
     }
 
     public Iterable<Entry> getAll()
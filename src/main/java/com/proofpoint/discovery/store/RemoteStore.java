@@ -15,7 +15,28 @@
  */
 package com.proofpoint.discovery.store;
 
+import java.util.Collection;
+
 public interface RemoteStore
 {
     void put(Entry entry);
+
+    /**
+     * Replicates an entry whose value the remote stores are expected to have
+     * already. Only the timestamp and max age need to be sent.
+     */
+    default void touch(Entry entry)
+    {
+        put(entry);
+    }
+
+    default void putAll(Collection<Entry> entries)
+    {
+        entries.forEach(this::put);
+    }
+
+    default void touchAll(Collection<Entry> entries)
+    {
+        entries.forEach(this::touch);
+    }
 }
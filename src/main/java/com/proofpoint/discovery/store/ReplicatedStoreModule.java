@@ -313,7 +313,7 @@ public class ReplicatedStoreModule
 
                 if (updateListenerKey != null) {
                     UpdateListener updateListener = injector.getInstance(updateListenerKey);
-                    ((InMemoryStore) localStore).setUpdateListener(updateListener);
+                    localStore.addUpdateListener(updateListener);
                 }
 
                 store = new DistributedStore(name, localStore, remoteStore, storeConfig, timeSupplier);
@@ -31,6 +31,7 @@ public class StoreConfig
     private int queueSize = 1000;
     private Duration remoteUpdateInterval = new Duration(5, TimeUnit.SECONDS);
     private Duration replicationInterval = new Duration(1, TimeUnit.MINUTES);
+    private int changeHistorySize = 10_000;
 
     @NotNull
     public Duration getTombstoneMaxAge()
@@ -110,4 +111,17 @@ public class StoreConfig
         this.replicationInterval = replicationInterval;
         return this;
     }
+
+    @Min(0)
+    public int getChangeHistorySize()
+    {
+        return changeHistorySize;
+    }
+
+    @Config("store.change-history-size")
+    public StoreConfig setChangeHistorySize(int changeHistorySize)
+    {
+        this.changeHistorySize = changeHistorySize;
+        return this;
+    }
 }
@@ -62,6 +62,30 @@ public class StoreResource
         return Response.noContent().build();
     }
 
+    @POST
+    @Path("touch")
+    @Consumes({"application/x-jackson-smile", "application/json"})
+    public Response touchMultipleEntries(@PathParam("store") String storeName, List<Touch> touches)
+    {
+        InMemoryStore store = localStores.get(storeName);
+        Duration tombstoneMaxAge = tombstoneMaxAges.get(storeName);
+        if (store == null || tombstoneMaxAge == null) {
+            return Response.status(Status.NOT_FOUND).build();
+        }
+
+        for (Touch touch : touches) {
+            // a store without the value gets it from the replicator
+            Entry entry = store.get(touch.getKey());
+            if (entry != null && touch.matches(entry)) {
+                Entry touched = touch.applyTo(entry);
+                if (!isExpired(tombstoneMaxAge, touched)) {
+                    store.put(touched);
+                }
+            }
+        }
+        return Response.noContent().build();
+    }
+
     @GET
     @Produces({"application/x-jackson-smile", "application/json"})
     public Response getAll(@PathParam("store") String storeName)
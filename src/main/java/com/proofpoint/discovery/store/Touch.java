@@ -0,0 +1,127 @@
+/*
+ * Copyright 2016 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.discovery.store;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Objects;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.hash.Hashing.murmur3_128;
+
+/**
+ * A new timestamp and max age for an entry whose value is unchanged. The
+ * value is identified by its hash, so a store only applies the touch to the
+ * same value.
+ */
+@Immutable
+public class Touch
+{
+    private final byte[] key;
+    private final long valueHash;
+    private final long timestamp;
+    private final Long maxAgeInMs;
+
+    @JsonCreator
+    public Touch(@JsonProperty("key") byte[] key,
+            @JsonProperty("valueHash") long valueHash,
+            @JsonProperty("timestamp") long timestamp,
+            @JsonProperty("maxAgeInMs") Long maxAgeInMs)
+    {
+        checkNotNull(key, "key is null");
+        checkArgument(maxAgeInMs == null || maxAgeInMs > 0, "maxAgeInMs must be greater than 0");
+
+        this.key = key;
+        this.valueHash = valueHash;
+        this.timestamp = timestamp;
+        this.maxAgeInMs = maxAgeInMs;
+    }
+
+    public static Touch of(Entry entry)
+    {
+        checkNotNull(entry.getValue(), "entry is a tombstone");
+        return new Touch(entry.getKey(), hash(entry.getValue()), entry.getTimestamp(), entry.getMaxAgeInMs());
+    }
+
+    @JsonProperty
+    public byte[] getKey()
+    {
+        return key;
+    }
+
+    @JsonProperty
+    public long getValueHash()
+    {
+        return valueHash;
+    }
+
+    @JsonProperty
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
+    @JsonProperty
+    public Long getMaxAgeInMs()
+    {
+        return maxAgeInMs;
+    }
+
+    /**
+     * Returns true if the entry is for the same key and has the touched value.
+     */
+    public boolean matches(Entry entry)
+    {
+        return Arrays.equals(key, entry.getKey()) && entry.getValue() != null && hash(entry.getValue()) == valueHash;
+    }
+
+    /**
+     * Returns the entry with the timestamp and max age of this touch.
+     */
+    public Entry applyTo(Entry entry)
+    {
+        checkArgument(matches(entry), "entry does not match");
+        return new Entry(key, entry.getValue(), timestamp, maxAgeInMs);
+    }
+
+    private static long hash(byte[] value)
+    {
+        return murmur3_128().hashBytes(value).asLong();
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hashCode(Arrays.hashCode(key), valueHash, timestamp, maxAgeInMs);
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        final Touch other = (Touch) obj;
+        return Arrays.equals(this.key, other.key) && this.valueHash == other.valueHash && this.timestamp == other.timestamp && Objects.equal(this.maxAgeInMs, other.maxAgeInMs);
+    }
+}
@@ -15,7 +15,15 @@
  */
 package com.proofpoint.discovery.store;
 
-interface UpdateListener
+public interface UpdateListener
 {
     void notifyUpdate(Entry oldEntry, Entry newEntry);
+
+    default void notifyInsert(Entry newEntry)
+    {
+    }
+
+    default void notifyRemove(Entry oldEntry)
+    {
+    }
 }
@@ -23,9 +23,13 @@ import org.joda.time.DateTime;
 
 import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Predicates.and;
@@ -33,13 +37,19 @@ import static com.google.common.collect.Collections2.transform;
 import static com.google.common.collect.Iterables.filter;
 import static com.proofpoint.discovery.DynamicServiceAnnouncement.toServiceWith;
 import static com.proofpoint.discovery.Service.matchesPool;
+import static com.proofpoint.discovery.Service.matchesProperties;
 import static com.proofpoint.discovery.Service.matchesType;
+import static java.util.Collections.emptySet;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 @ThreadSafe
 public class InMemoryDynamicStore
         implements DynamicStore
 {
     private final Map<Id<Node>, Entry> descriptors = Maps.newHashMap();
+    private long generation = 0;
+    private final List<Change> changes = new ArrayList<>();
+    private final List<Runnable> changeListeners = new CopyOnWriteArrayList<>();
     private final Duration maxAge;
     private final Supplier<DateTime> currentTime;
 
@@ -51,7 +61,22 @@ public class InMemoryDynamicStore
     }
 
     @Override
-    public synchronized void put(Id<Node> nodeId, DynamicAnnouncement announcement)
+    public void put(Id<Node> nodeId, DynamicAnnouncement announcement)
+    {
+        putEntry(nodeId, announcement);
+        notifyChangeListeners();
+    }
+
+    @Override
+    public void putAll(Map<Id<Node>, DynamicAnnouncement> announcements)
+    {
+        synchronized (this) {
+            announcements.forEach(this::putEntry);
+        }
+        notifyChangeListeners();
+    }
+
+    private synchronized void putEntry(Id<Node> nodeId, DynamicAnnouncement announcement)
     {
         checkNotNull(nodeId, "nodeId is null");
         checkNotNull(announcement, "announcement is null");
@@ -59,15 +84,44 @@ public class InMemoryDynamicStore
         Set<Service> services = ImmutableSet.copyOf(transform(announcement.getServiceAnnouncements(), toServiceWith(nodeId, announcement.getLocation(), announcement.getPool())));
 
         DateTime expiration = currentTime.get().plusMillis((int) maxAge.toMillis());
-        descriptors.put(nodeId, new Entry(expiration, services));
+        Entry old = descriptors.put(nodeId, new Entry(expiration, services));
+        recordChange(nodeId, old == null ? emptySet() : old.getServices(), services);
     }
 
     @Override
-    public synchronized void delete(Id<Node> nodeId)
+    public void delete(Id<Node> nodeId)
+    {
+        if (deleteEntry(nodeId)) {
+            notifyChangeListeners();
+        }
+    }
+
+    private synchronized boolean deleteEntry(Id<Node> nodeId)
     {
         checkNotNull(nodeId, "nodeId is null");
 
-        descriptors.remove(nodeId);
+        Entry old = descriptors.remove(nodeId);
+        if (old != null) {
+            recordChange(nodeId, old.getServices(), emptySet());
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized boolean renew(Id<Node> nodeId)
+    {
+        checkNotNull(nodeId, "nodeId is null");
+
+        removeExpired();
+
+        Entry old = descriptors.get(nodeId);
+        if (old == null) {
+            return false;
+        }
+        DateTime expiration = currentTime.get().plusMillis((int) maxAge.toMillis());
+        descriptors.put(nodeId, new Entry(expiration, old.getServices()));
+        return true;
     }
 
     @Override
@@ -99,20 +153,143 @@ public class InMemoryDynamicStore
         return ImmutableSet.copyOf(filter(getAll(), and(matchesType(type), matchesPool(pool))));
     }
 
+    @Override
+    public synchronized Set<Service> get(String type, String pool, Map<String, String> properties)
+    {
+        checkNotNull(type, "type is null");
+        checkNotNull(properties, "properties is null");
+
+        Set<Service> services = pool == null ? get(type) : get(type, pool);
+        return ImmutableSet.copyOf(filter(services, matchesProperties(properties)));
+    }
+
+    @Override
+    public synchronized long getGeneration()
+    {
+        removeExpired();
+
+        return generation;
+    }
+
+    @Override
+    public synchronized Duration getTimeToNextExpiration()
+    {
+        removeExpired();
+
+        long now = currentTime.get().getMillis();
+        long timeToNextExpiration = maxAge.toMillis();
+        for (Entry entry : descriptors.values()) {
+            timeToNextExpiration = Math.min(timeToNextExpiration, entry.getExpiration().getMillis() - now);
+        }
+        return new Duration(Math.max(0, timeToNextExpiration), MILLISECONDS);
+    }
+
+    @Override
+    public synchronized ServiceChanges getChanges(String type, long generation)
+    {
+        checkNotNull(type, "type is null");
+
+        removeExpired();
+        if (generation > this.generation) {
+            return null;
+        }
+
+        Map<Id<Node>, Change> merged = new LinkedHashMap<>();
+        for (Change change : changes) {
+            if (change.getGeneration() > generation) {
+                merged.merge(change.getNodeId(), change, (first, last) ->
+                        new Change(last.getGeneration(), first.getNodeId(), first.getOldServices(), last.getNewServices()));
+            }
+        }
+
+        ServiceChanges.Builder builder = ServiceChanges.builder(matchesType(type));
+        for (Change change : merged.values()) {
+            builder.add(change.getOldServices(), change.getNewServices());
+        }
+        return builder.build(this.generation);
+    }
+
+    @Override
+    public synchronized List<PoolSummary> getSummary()
+    {
+        removeExpired();
+
+        ServiceCounts<Id<Node>> counts = new ServiceCounts<>();
+        for (Change change : changes) {
+            counts.update(change.getNodeId(), change.getNewServices(), change.getGeneration());
+        }
+        return counts.getSummary();
+    }
+
+    @Override
+    public void addChangeListener(Runnable listener)
+    {
+        changeListeners.add(checkNotNull(listener, "listener is null"));
+    }
+
+    private void notifyChangeListeners()
+    {
+        for (Runnable listener : changeListeners) {
+            listener.run();
+        }
+    }
+
     private synchronized void removeExpired()
     {
-        Iterator<Entry> iterator = descriptors.values().iterator();
+        Iterator<Map.Entry<Id<Node>, Entry>> iterator = descriptors.entrySet().iterator();
 
         DateTime now = currentTime.get();
         while (iterator.hasNext()) {
-            Entry entry = iterator.next();
+            Map.Entry<Id<Node>, Entry> entry = iterator.next();
 
-            if (now.isAfter(entry.getExpiration())) {
+            if (now.isAfter(entry.getValue().getExpiration())) {
                 iterator.remove();
+                recordChange(entry.getKey(), entry.getValue().getServices(), emptySet());
             }
         }
     }
 
+    private synchronized void recordChange(Id<Node> nodeId, Set<Service> oldServices, Set<Service> newServices)
+    {
+        changes.add(new Change(++generation, nodeId, oldServices, newServices));
+    }
+
+    private static class Change
+    {
+        private final long generation;
+        private final Id<Node> nodeId;
+        private final Set<Service> oldServices;
+        private final Set<Service> newServices;
+
+        Change(long generation, Id<Node> nodeId, Set<Service> oldServices, Set<Service> newServices)
+        {
+            this.generation = generation;
+            this.nodeId = nodeId;
+            this.oldServices = oldServices;
+            this.newServices = newServices;
+        }
+
+        public long getGeneration()
+        {
+            return generation;
+        }
+
+        public Id<Node> getNodeId()
+        {
+            return nodeId;
+        }
+
+        public Set<Service> getOldServices()
+        {
+            return oldServices;
+        }
+
+        public Set<Service> getNewServices()
+        {
+            return newServices;
+        }
+    }
+
     private static class Entry
     {
         private final Set<Service> services;
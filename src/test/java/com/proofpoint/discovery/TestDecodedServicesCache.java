@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.discovery;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.proofpoint.discovery.store.Entry;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+
+public class TestDecodedServicesCache
+{
+    private static final ServiceValueCodec CODEC = new ServiceValueCodec(true);
+
+    private final Id<Node> nodeId = Id.random();
+    private final Service service1 = new Service(Id.random(), nodeId, "storage", "pool", "/a/b/c", ImmutableMap.of("http", "http://localhost:1111"));
+    private final Service service2 = new Service(Id.random(), nodeId, "web", "pool", "/a/b/c", ImmutableMap.of("http", "http://localhost:2222"));
+    private DecodedServicesCache cache;
+
+    @BeforeMethod
+    public void setup()
+    {
+        cache = new DecodedServicesCache(CODEC);
+    }
+
+    @Test
+    public void testDecodesOnce()
+    {
+        Entry entry = entryOf(1, service1, service2);
+        cache.notifyInsert(entry);
+
+        List<Service> services = cache.get(entry);
+        assertEquals(services, ImmutableList.of(service1, service2));
+        assertSame(cache.get(entry), services);
+    }
+
+    @Test
+    public void testUncached()
+    {
+        Entry entry = entryOf(1, service1);
+
+        List<Service> services = cache.get(entry);
+        assertEquals(services, ImmutableList.of(service1));
+        assertNotSame(cache.get(entry), services);
+    }
+
+    @Test
+    public void testReplaced()
+    {
+        Entry oldEntry = entryOf(1, service1);
+        Entry newEntry = entryOf(2, service2);
+        cache.notifyInsert(oldEntry);
+        cache.notifyUpdate(oldEntry, newEntry);
+
+        List<Service> services = cache.get(newEntry);
+        assertEquals(services, ImmutableList.of(service2));
+        assertSame(cache.get(newEntry), services);
+    }
+
+    @Test
+    public void testOutOfOrderUpdate()
+    {
+        Entry oldEntry = entryOf(1, service1);
+        Entry newEntry = entryOf(2, service2);
+        cache.notifyInsert(newEntry);
+        cache.notifyInsert(oldEntry);
+
+        List<Service> services = cache.get(newEntry);
+        assertSame(cache.get(newEntry), services);
+    }
+
+    @Test
+    public void testRenewed()
+    {
+        Entry entry = entryOf(1, service1, service2);
+        Entry renewed = entryOf(2, service1, service2);
+        cache.notifyInsert(entry);
+        List<Service> services = cache.get(entry);
+
+        cache.notifyUpdate(entry, renewed);
+        assertSame(cache.get(renewed), services);
+    }
+
+    @Test
+    public void testRemoved()
+    {
+        Entry entry = entryOf(1, service1);
+        cache.notifyInsert(entry);
+        List<Service> services = cache.get(entry);
+
+        cache.notifyRemove(entry);
+        assertNotSame(cache.get(entry), services);
+    }
+
+    private Entry entryOf(long timestamp, Service... services)
+    {
+        return new Entry(nodeId.getBytes(), CODEC.encode(ImmutableList.copyOf(services)), timestamp, 60_000L);
+    }
+}
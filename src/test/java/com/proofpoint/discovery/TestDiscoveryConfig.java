@@ -39,7 +39,11 @@ public class TestDiscoveryConfig
                 .setMaxAge(new Duration(90, TimeUnit.SECONDS))
                 .setProxyProxiedTypes(DiscoveryConfig.StringSet.of())
                 .setProxyEnvironment(null)
-                .setProxyUris(DiscoveryConfig.UriSet.of()));
+                .setProxyUris(DiscoveryConfig.UriSet.of())
+                .setIngestionThreads(4)
+                .setIngestionQueueSize(10_000)
+                .setIngestionRetryAfter(new Duration(5, TimeUnit.SECONDS))
+                .setCompactValues(false));
     }
 
     @Test
@@ -50,13 +54,21 @@ public class TestDiscoveryConfig
                 .put("discovery.proxy.proxied-types", "foo  ,  bar")
                 .put("discovery.proxy.environment", "pre-release")
                 .put("discovery.proxy.uri", "http://10.20.30.40:4111,http://50.60.70.80:9125")
+                .put("discovery.ingestion.threads", "8")
+                .put("discovery.ingestion.queue-size", "500")
+                .put("discovery.ingestion.retry-after", "10s")
+                .put("discovery.compact-values", "true")
                 .build();
 
         DiscoveryConfig expected = new DiscoveryConfig()
                 .setMaxAge(new Duration(1, TimeUnit.MINUTES))
                 .setProxyProxiedTypes(DiscoveryConfig.StringSet.of("foo", "bar"))
                 .setProxyEnvironment("pre-release")
-                .setProxyUris(DiscoveryConfig.UriSet.of(URI.create("http://10.20.30.40:4111"), URI.create("http://50.60.70.80:9125")));
+                .setProxyUris(DiscoveryConfig.UriSet.of(URI.create("http://10.20.30.40:4111"), URI.create("http://50.60.70.80:9125")))
+                .setIngestionThreads(8)
+                .setIngestionQueueSize(500)
+                .setIngestionRetryAfter(new Duration(10, TimeUnit.SECONDS))
+                .setCompactValues(true);
 
         ConfigAssertions.assertFullMapping(properties, expected);
     }
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2016 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.discovery;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Resources;
+import com.proofpoint.json.JsonCodec;
+import org.testng.annotations.Test;
+
+import javax.validation.constraints.NotNull;
+import java.io.IOException;
+import java.util.Collections;
+
+import static com.proofpoint.testing.ValidationAssertions.assertFailsValidation;
+import static org.testng.Assert.assertEquals;
+
+public class TestDynamicAnnouncementBatch
+{
+    @Test
+    public void testRejectsNullAnnouncements()
+    {
+        DynamicAnnouncementBatch batch = new DynamicAnnouncementBatch(null);
+        assertFailsValidation(batch, "announcements", "may not be null", NotNull.class);
+    }
+
+    @Test
+    public void testValidatesNestedAnnouncements()
+    {
+        Id<Node> nodeId = Id.random();
+        DynamicAnnouncementBatch batch = new DynamicAnnouncementBatch(ImmutableMap.of(
+                nodeId, new DynamicAnnouncement("testing", null, "/location", Collections.<DynamicServiceAnnouncement>emptySet())
+        ));
+
+        assertFailsValidation(batch, "announcements[" + nodeId + "].pool", "may not be null", NotNull.class);
+    }
+
+    @Test
+    public void testParsing()
+            throws IOException
+    {
+        JsonCodec<DynamicAnnouncementBatch> codec = JsonCodec.jsonCodec(DynamicAnnouncementBatch.class);
+
+        DynamicAnnouncementBatch parsed = codec.fromJson(Resources.toString(Resources.getResource("announcement-batch.json"), Charsets.UTF_8));
+
+        DynamicServiceAnnouncement red = new DynamicServiceAnnouncement(Id.<Service>valueOf("1c001650-7841-11e0-a1f0-0800200c9a66"), "red", ImmutableMap.of("key", "redValue"));
+        DynamicServiceAnnouncement blue = new DynamicServiceAnnouncement(Id.<Service>valueOf("2a817750-7841-11e0-a1f0-0800200c9a66"), "blue", ImmutableMap.of("key", "blueValue"));
+
+        assertEquals(parsed.getAnnouncements(), ImmutableMap.of(
+                Id.<Node>valueOf("5a6e3e3a-7841-11e0-a1f0-0800200c9a66"), new DynamicAnnouncement("testing", "poolA", "/a/b/c", ImmutableSet.of(red)),
+                Id.<Node>valueOf("6b2f8a10-7841-11e0-a1f0-0800200c9a66"), new DynamicAnnouncement("testing", "poolA", "/a/b/d", ImmutableSet.of(blue))
+        ));
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2016 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.discovery;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestDynamicAnnouncementIngester
+{
+    private static final DynamicAnnouncement ANNOUNCEMENT = new DynamicAnnouncement("testing", "alpha", "/a/b/c", ImmutableSet.of(
+            new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("http", "http://localhost:1111"))
+    ));
+
+    private DynamicStore store;
+    private CountDownLatch started;
+    private CountDownLatch release;
+    private DynamicAnnouncementIngester ingester;
+
+    @BeforeMethod
+    public void setup()
+    {
+        store = mock(DynamicStore.class);
+        started = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            started.countDown();
+            release.await();
+            return null;
+        }).when(store).put(any(), any());
+
+        ingester = new DynamicAnnouncementIngester(store, new DiscoveryConfig()
+                .setIngestionThreads(1)
+                .setIngestionQueueSize(1));
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void teardown()
+    {
+        release.countDown();
+        ingester.shutdown();
+    }
+
+    @Test
+    public void testAppliesInOrder()
+            throws InterruptedException
+    {
+        Id<Node> nodeId = Id.random();
+
+        assertTrue(ingester.put(nodeId, ANNOUNCEMENT));
+        assertTrue(started.await(10, SECONDS));
+        assertTrue(ingester.delete(nodeId));
+        assertEquals(ingester.getQueuedChanges(), 1);
+
+        release.countDown();
+        verify(store, timeout(10_000)).delete(nodeId);
+    }
+
+    @Test
+    public void testRejectsWhenFull()
+            throws InterruptedException
+    {
+        assertTrue(ingester.put(Id.random(), ANNOUNCEMENT));
+        assertTrue(started.await(10, SECONDS));
+        assertTrue(ingester.put(Id.random(), ANNOUNCEMENT));
+
+        assertFalse(ingester.put(Id.random(), ANNOUNCEMENT));
+        assertFalse(ingester.putAll(ImmutableMap.of(Id.random(), ANNOUNCEMENT)));
+        assertFalse(ingester.delete(Id.random()));
+    }
+}
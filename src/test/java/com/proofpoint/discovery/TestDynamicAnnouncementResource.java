@@ -15,17 +15,22 @@
  */
 package com.proofpoint.discovery;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.proofpoint.discovery.DiscoveryConfig.StringSet;
 import com.proofpoint.discovery.store.RealTimeSupplier;
 import com.proofpoint.node.NodeInfo;
+import com.proofpoint.units.Duration;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
+import java.util.concurrent.ExecutorService;
 
+import static com.google.common.util.concurrent.MoreExecutors.newDirectExecutorService;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertTrue;
@@ -33,13 +38,15 @@ import static org.testng.Assert.assertTrue;
 public class TestDynamicAnnouncementResource
 {
     private InMemoryDynamicStore store;
+    private DynamicAnnouncementIngester ingester;
     private DynamicAnnouncementResource resource;
 
     @BeforeMethod
     public void setup()
     {
         store = new InMemoryDynamicStore(new DiscoveryConfig(), new RealTimeSupplier());
-        resource = new DynamicAnnouncementResource(store, new NodeInfo("testing"), new DiscoveryConfig());
+        ingester = new DynamicAnnouncementIngester(store, ImmutableList.of(newDirectExecutorService()), new Duration(5, SECONDS));
+        resource = new DynamicAnnouncementResource(ingester, store, new NodeInfo("testing"), new DiscoveryConfig());
     }
 
     @Test
@@ -117,7 +124,7 @@ public class TestDynamicAnnouncementResource
     @Test
     public void testPutProxied()
     {
-        resource = new DynamicAnnouncementResource(store, new NodeInfo("testing"),
+        resource = new DynamicAnnouncementResource(ingester, store, new NodeInfo("testing"),
                 new DiscoveryConfig().setProxyProxiedTypes(StringSet.of("storage")));
 
         DynamicAnnouncement announcement = new DynamicAnnouncement("testing", "alpha", "/a/b/c", ImmutableSet.of(
@@ -133,6 +140,52 @@ public class TestDynamicAnnouncementResource
         assertTrue(store.getAll().isEmpty());
     }
 
+    @Test
+    public void testPutAll()
+    {
+        Id<Node> blueNodeId = Id.random();
+        DynamicAnnouncement blue = new DynamicAnnouncement("testing", "alpha", "/a/b/c", ImmutableSet.of(
+                new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("key", "valueBlue"))
+        ));
+
+        Id<Node> redNodeId = Id.random();
+        DynamicAnnouncement red = new DynamicAnnouncement("testing", "alpha", null, ImmutableSet.of(
+                new DynamicServiceAnnouncement(Id.<Service>random(), "web", ImmutableMap.of("key", "valueRed"))
+        ));
+
+        Response response = resource.putAll(new DynamicAnnouncementBatch(ImmutableMap.of(blueNodeId, blue, redNodeId, red)));
+
+        assertNotNull(response);
+        assertEquals(response.getStatus(), Response.Status.ACCEPTED.getStatusCode());
+
+        assertEquals(store.get("storage").iterator().next().getNodeId(), blueNodeId);
+        Service service = store.get("web").iterator().next();
+        assertEquals(service.getNodeId(), redNodeId);
+        assertNotNull(service.getLocation());
+        assertEquals(store.getAll().size(), 2);
+    }
+
+    @Test
+    public void testPutAllProxied()
+    {
+        resource = new DynamicAnnouncementResource(ingester, store, new NodeInfo("testing"),
+                new DiscoveryConfig().setProxyProxiedTypes(StringSet.of("storage")));
+
+        DynamicAnnouncement allowed = new DynamicAnnouncement("testing", "alpha", "/a/b/c", ImmutableSet.of(
+                new DynamicServiceAnnouncement(Id.<Service>random(), "web", ImmutableMap.of("http", "http://localhost:1111")))
+        );
+        DynamicAnnouncement forbidden = new DynamicAnnouncement("testing", "alpha", "/a/b/c", ImmutableSet.of(
+                new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("http", "http://localhost:2222")))
+        );
+
+        Response response = resource.putAll(new DynamicAnnouncementBatch(ImmutableMap.of(Id.random(), allowed, Id.random(), forbidden)));
+
+        assertNotNull(response);
+        assertEquals(response.getStatus(), Status.FORBIDDEN.getStatusCode());
+
+        assertTrue(store.getAll().isEmpty());
+    }
+
     @Test
     public void testDeleteExisting()
     {
@@ -150,8 +203,9 @@ public class TestDynamicAnnouncementResource
         store.put(redNodeId, red);
         store.put(blueNodeId, blue);
 
-        resource.delete(blueNodeId);
+        Response response = resource.delete(blueNodeId);
 
+        assertEquals(response.getStatus(), Status.ACCEPTED.getStatusCode());
         assertEquals(store.getAll().size(), 1);
         Service service = store.getAll().iterator().next();
 
@@ -163,11 +217,60 @@ public class TestDynamicAnnouncementResource
         assertEquals(service.getProperties(), serviceAnnouncement.getProperties());
     }
 
+    @Test
+    public void testQueueFull()
+    {
+        ExecutorService rejecting = newDirectExecutorService();
+        rejecting.shutdown();
+        ingester = new DynamicAnnouncementIngester(store, ImmutableList.of(rejecting), new Duration(5, SECONDS));
+        resource = new DynamicAnnouncementResource(ingester, store, new NodeInfo("testing"), new DiscoveryConfig());
+
+        DynamicAnnouncement announcement = new DynamicAnnouncement("testing", "alpha", "/a/b/c", ImmutableSet.of(
+                new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("http", "http://localhost:1111")))
+        );
+
+        Response response = resource.put(Id.random(), announcement);
+
+        assertNotNull(response);
+        assertEquals(response.getStatus(), 429);
+        assertEquals(response.getHeaderString("Retry-After"), "5");
+
+        assertTrue(store.getAll().isEmpty());
+    }
+
     @Test
     public void testDeleteMissing()
     {
-        resource.delete(Id.<Node>random());
+        Response response = resource.delete(Id.<Node>random());
+
+        assertEquals(response.getStatus(), Status.ACCEPTED.getStatusCode());
+        assertTrue(store.getAll().isEmpty());
+    }
+
+    @Test
+    public void testRenewExisting()
+    {
+        Id<Node> nodeId = Id.random();
+        DynamicAnnouncement announcement = new DynamicAnnouncement("testing", "alpha", "/a/b/c", ImmutableSet.of(
+                new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("http", "http://localhost:1111"))
+        ));
+
+        store.put(nodeId, announcement);
+
+        Response response = resource.renew(nodeId);
+
+        assertNotNull(response);
+        assertEquals(response.getStatus(), Response.Status.ACCEPTED.getStatusCode());
+        assertEquals(store.getAll().size(), 1);
+    }
+
+    @Test
+    public void testRenewMissing()
+    {
+        Response response = resource.renew(Id.<Node>random());
 
+        assertNotNull(response);
+        assertEquals(response.getStatus(), Response.Status.NOT_FOUND.getStatusCode());
         assertTrue(store.getAll().isEmpty());
     }
 
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2016 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.discovery;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.proofpoint.discovery.store.Entry;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestDynamicServiceIndex
+{
+    private static final ServiceValueCodec CODEC = new ServiceValueCodec(true);
+
+    private final Id<Node> nodeId = Id.random();
+    private final Service storageA = new Service(Id.random(), nodeId, "storage", "poolA", "/a/b/c", ImmutableMap.of("http", "http://localhost:1111"));
+    private final Service storageB = new Service(storageA.getId(), nodeId, "storage", "poolB", "/a/b/c", ImmutableMap.of("http", "http://localhost:2222"));
+    private final AtomicInteger decodes = new AtomicInteger();
+    private final AtomicInteger examined = new AtomicInteger();
+    private DynamicServiceIndex index;
+
+    @BeforeMethod
+    public void setup()
+    {
+        decodes.set(0);
+        examined.set(0);
+        index = new DynamicServiceIndex(entry -> {
+            decodes.incrementAndGet();
+            return CODEC.decode(entry.getValue());
+        }, entry -> {
+            examined.incrementAndGet();
+            return true;
+        });
+    }
+
+    @Test
+    public void testRenewalDoesNotDecode()
+    {
+        Entry entry = entryOf(1, storageA);
+        index.notifyInsert(entry);
+        index.notifyUpdate(entry, entryOf(2, storageA));
+
+        assertEquals(decodes.get(), 1);
+        assertEquals(index.get("storage", "poolA"), ImmutableSet.of(storageA));
+        assertEquals(index.get("storage", "poolA", ImmutableMap.of("http", "http://localhost:1111")), ImmutableSet.of(storageA));
+    }
+
+    @Test
+    public void testReplaced()
+    {
+        Entry entry = entryOf(1, storageA);
+        index.notifyInsert(entry);
+        index.notifyUpdate(entry, entryOf(2, storageB));
+
+        assertEquals(decodes.get(), 2);
+        assertTrue(index.get("storage", "poolA").isEmpty());
+        assertEquals(index.get("storage"), ImmutableSet.of(storageB));
+        assertTrue(index.get("storage", null, ImmutableMap.of("http", "http://localhost:1111")).isEmpty());
+        assertEquals(index.get("storage", null, ImmutableMap.of("http", "http://localhost:2222")), ImmutableSet.of(storageB));
+    }
+
+    @Test
+    public void testPropertyLookupExaminesOnlyType()
+    {
+        Map<String, String> properties = ImmutableMap.of("http", "http://localhost:1111");
+        for (int i = 0; i < 10; i++) {
+            Id<Node> webNodeId = Id.random();
+            Service web = new Service(Id.random(), webNodeId, "web", "poolA", "/a/b/c", properties);
+            index.notifyInsert(entryOf(webNodeId, 1, web));
+        }
+        index.notifyInsert(entryOf(1, storageA));
+        examined.set(0);
+
+        assertEquals(index.get("storage", null, properties), ImmutableSet.of(storageA));
+        assertEquals(examined.get(), 1);
+        assertEquals(index.get("web", "poolA", properties).size(), 10);
+    }
+
+    private Entry entryOf(long timestamp, Service... services)
+    {
+        return entryOf(nodeId, timestamp, services);
+    }
+
+    private static Entry entryOf(Id<Node> nodeId, long timestamp, Service... services)
+    {
+        return new Entry(nodeId.getBytes(), CODEC.encode(ImmutableList.copyOf(services)), timestamp, 60_000L);
+    }
+}
@@ -24,6 +24,7 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import java.util.Collections;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import static com.google.common.collect.Collections2.transform;
@@ -31,6 +32,8 @@ import static com.google.common.collect.Iterables.concat;
 import static com.proofpoint.discovery.DynamicServiceAnnouncement.toServiceWith;
 import static com.proofpoint.testing.Assertions.assertEqualsIgnoreOrder;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertTrue;
 
 public abstract class TestDynamicStore
@@ -307,6 +310,107 @@ public abstract class TestDynamicStore
         assertEqualsIgnoreOrder(store.getAll(), builder.build());
     }
 
+    @Test
+    public void testGetSummary()
+    {
+        Id<Node> blueNodeId = Id.random();
+        DynamicAnnouncement blue = new DynamicAnnouncement("testing", "poolA", "/US/West/SC4/rack1/host1/vm1/slot1", ImmutableSet.of(
+                new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("http", "http://localhost:1111")),
+                new DynamicServiceAnnouncement(Id.<Service>random(), "web", ImmutableMap.of("http", "http://localhost:2222"))
+        ));
+
+        Id<Node> redNodeId = Id.random();
+        DynamicAnnouncement red = new DynamicAnnouncement("testing", "poolA", "/US/West/SC4/rack1/host1/vm1/slot2", ImmutableSet.of(
+                new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("http", "http://localhost:3333"))
+        ));
+
+        assertTrue(store.getSummary().isEmpty());
+
+        store.put(blueNodeId, blue);
+        store.put(redNodeId, red);
+        assertEquals(getCounts(), ImmutableMap.of("storage/poolA", 2, "web/poolA", 1));
+
+        currentTime.increment();
+        store.delete(redNodeId);
+        assertEquals(getCounts(), ImmutableMap.of("storage/poolA", 1, "web/poolA", 1));
+
+        advanceTimeBeyondMaxAge();
+        assertTrue(store.getSummary().isEmpty());
+    }
+
+    @Test
+    public void testGetTimeToNextExpiration()
+    {
+        assertEquals(store.getTimeToNextExpiration().toMillis(), MAX_AGE.toMillis());
+
+        Id<Node> nodeId = Id.random();
+        DynamicAnnouncement blue = new DynamicAnnouncement("testing", "poolA", "/US/West/SC4/rack1/host1/vm1/slot1", ImmutableSet.of(
+                new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("http", "http://localhost:1111"))
+        ));
+        store.put(nodeId, blue);
+
+        currentTime.add(new Duration(20, TimeUnit.SECONDS));
+        assertEquals(store.getTimeToNextExpiration().toMillis(), new Duration(40, TimeUnit.SECONDS).toMillis());
+
+        advanceTimeBeyondMaxAge();
+        assertEquals(store.getTimeToNextExpiration().toMillis(), MAX_AGE.toMillis());
+    }
+
+    @Test
+    public void testPutAll()
+    {
+        Id<Node> blueNodeId = Id.random();
+        DynamicAnnouncement blue = new DynamicAnnouncement("testing", "poolA", "/US/West/SC4/rack1/host1/vm1/slot1", ImmutableSet.of(
+                new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("http", "http://localhost:1111"))
+        ));
+
+        Id<Node> redNodeId = Id.random();
+        DynamicAnnouncement red = new DynamicAnnouncement("testing", "poolA", "/US/West/SC4/rack1/host1/vm1/slot2", ImmutableSet.of(
+                new DynamicServiceAnnouncement(Id.<Service>random(), "web", ImmutableMap.of("http", "http://localhost:2222"))
+        ));
+
+        store.putAll(ImmutableMap.of(blueNodeId, blue, redNodeId, red));
+
+        assertEqualsIgnoreOrder(store.getAll(), concat(
+                transform(blue.getServiceAnnouncements(), toServiceWith(blueNodeId, blue.getLocation(), blue.getPool())),
+                transform(red.getServiceAnnouncements(), toServiceWith(redNodeId, red.getLocation(), red.getPool()))));
+    }
+
+    @Test
+    public void testRenew()
+    {
+        Id<Node> nodeId = Id.random();
+        DynamicAnnouncement blue = new DynamicAnnouncement("testing", "poolA", "/US/West/SC4/rack1/host1/vm1/slot1", ImmutableSet.of(
+                new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("http", "http://localhost:1111"))
+        ));
+
+        assertFalse(store.renew(nodeId));
+
+        store.put(nodeId, blue);
+        long generation = store.getGeneration();
+
+        currentTime.add(new Duration(40, TimeUnit.SECONDS));
+        assertTrue(store.renew(nodeId));
+        assertEquals(store.getGeneration(), generation);
+
+        currentTime.add(new Duration(40, TimeUnit.SECONDS));
+        assertEquals(store.getAll(), transform(blue.getServiceAnnouncements(), toServiceWith(nodeId, blue.getLocation(), blue.getPool())));
+
+        advanceTimeBeyondMaxAge();
+        assertFalse(store.renew(nodeId));
+        assertEquals(store.getAll(), Collections.<Service>emptySet());
+    }
+
+    private Map<String, Integer> getCounts()
+    {
+        ImmutableMap.Builder<String, Integer> builder = ImmutableMap.builder();
+        for (PoolSummary pool : store.getSummary()) {
+            assertNotNull(pool.getIndex());
+            builder.put(pool.getType() + "/" + pool.getPool(), pool.getCount());
+        }
+        return builder.build();
+    }
+
 
     private void advanceTimeBeyondMaxAge()
     {
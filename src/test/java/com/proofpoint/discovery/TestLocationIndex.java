@@ -0,0 +1,60 @@
+/*
+ * Copyright 2016 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.discovery;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+
+public class TestLocationIndex
+{
+    private final Service farHost = createService("/dc2/rack1/host1");
+    private final Service otherRack = createService("/dc1/rack2/host1");
+    private final Service sameRack = createService("/dc1/rack1/host2");
+    private final Service sameHost = createService("/dc1/rack1/host1");
+    private final LocationIndex index = new LocationIndex(3, ImmutableSet.of(farHost, otherRack, sameRack, sameHost));
+
+    @Test
+    public void testNearest()
+    {
+        assertEquals(ImmutableList.copyOf(index.nearest("/dc1/rack1/host1", 0)), ImmutableList.of(sameHost, sameRack, otherRack, farHost));
+        assertEquals(ImmutableList.copyOf(index.nearest("/dc1/rack1/host3", 0)), ImmutableList.of(sameRack, sameHost, otherRack, farHost));
+        assertEquals(ImmutableList.copyOf(index.nearest("/dc3", 0)), ImmutableList.of(farHost, otherRack, sameRack, sameHost));
+    }
+
+    @Test
+    public void testMinDepth()
+    {
+        assertEquals(ImmutableList.copyOf(index.nearest("/dc1/rack1/host1", 1)), ImmutableList.of(sameHost, sameRack, otherRack));
+        assertEquals(ImmutableList.copyOf(index.nearest("/dc1/rack1/host1", 2)), ImmutableList.of(sameHost, sameRack));
+        assertEquals(index.nearest("/dc1/rack1/host1", 4), ImmutableSet.of());
+        assertEquals(index.nearest("/dc3", 1), ImmutableSet.of());
+    }
+
+    @Test
+    public void testGeneration()
+    {
+        assertEquals(index.getGeneration(), 3);
+    }
+
+    private static Service createService(String location)
+    {
+        return new Service(Id.random(), Id.random(), "storage", "pool", location, ImmutableMap.of());
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2016 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.discovery;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.mockito.Mock;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Set;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+
+@SuppressWarnings("unchecked")
+public class TestMergedServiceView
+{
+    private final Service staticStorage = new Service(Id.random(), null, "storage", "alpha", "/x/y/z", ImmutableMap.of("key", "1"));
+    private final Service proxiedWeb = new Service(Id.random(), Id.random(), "web", "alpha", "/x/y/z", ImmutableMap.of("key", "2"));
+
+    @Mock
+    private ConfigStore configStore;
+    @Mock
+    private ProxyStore proxyStore;
+    private InMemoryDynamicStore dynamicStore;
+    private MergedServiceView view;
+
+    @BeforeMethod
+    public void setup()
+    {
+        initMocks(this);
+
+        when(configStore.getAll()).thenReturn(ImmutableSet.of(staticStorage));
+        when(configStore.get("storage")).thenReturn(ImmutableSet.of(staticStorage));
+        when(configStore.get("storage", "alpha")).thenReturn(ImmutableSet.of(staticStorage));
+        when(configStore.get("web")).thenReturn(ImmutableSet.of());
+        when(proxyStore.get("web")).thenReturn(ImmutableSet.of(proxiedWeb));
+        when(proxyStore.filterAndGetAll(any(Set.class))).thenAnswer(invocation -> ImmutableSet.builder()
+                .addAll((Set<Service>) invocation.getArguments()[0])
+                .add(proxiedWeb)
+                .build());
+
+        dynamicStore = new InMemoryDynamicStore(new DiscoveryConfig(), new TestingTimeSupplier());
+        view = new MergedServiceView(dynamicStore, configStore, proxyStore);
+    }
+
+    @Test
+    public void testMerged()
+    {
+        Id<Node> nodeId = Id.random();
+        DynamicServiceAnnouncement storageAnnouncement = new DynamicServiceAnnouncement(Id.random(), "storage", ImmutableMap.of("key", "3"));
+        dynamicStore.put(nodeId, new DynamicAnnouncement("testing", "alpha", "/a/b/c", ImmutableSet.of(storageAnnouncement)));
+        Service dynamicStorage = new Service(storageAnnouncement.getId(), nodeId, "storage", "alpha", "/a/b/c", storageAnnouncement.getProperties());
+
+        assertEquals(view.getAll(1), ImmutableSet.of(staticStorage, dynamicStorage, proxiedWeb));
+        assertEquals(view.get("storage", 1), ImmutableSet.of(staticStorage, dynamicStorage));
+        assertEquals(view.get("storage", "alpha", 1), ImmutableSet.of(staticStorage, dynamicStorage));
+        assertEquals(view.get("web", 1), ImmutableSet.of(proxiedWeb));
+    }
+
+    @Test
+    public void testRebuiltOnlyWhenGenerationChanges()
+    {
+        Set<Service> services = view.get("storage", 1);
+        assertSame(view.get("storage", 1), services);
+        assertSame(view.get("storage", 0), services);
+        verify(configStore, times(1)).get("storage");
+
+        Id<Node> nodeId = Id.random();
+        dynamicStore.put(nodeId, new DynamicAnnouncement("testing", "alpha", "/a/b/c", ImmutableSet.of(
+                new DynamicServiceAnnouncement(Id.random(), "storage", ImmutableMap.of("key", "3")))));
+
+        Set<Service> updated = view.get("storage", 2);
+        assertNotSame(updated, services);
+        assertEquals(updated.size(), 2);
+        verify(configStore, times(2)).get("storage");
+    }
+}
@@ -22,6 +22,7 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
 import static org.testng.Assert.assertTrue;
 
 public class TestProxyStore
@@ -75,6 +76,16 @@ public class TestProxyStore
         assertEquals(proxyStore.get("customer", "pool3"), ImmutableSet.<Service>of());
         assertEquals(proxyStore.get("auth", "pool3"), ImmutableSet.<Service>of());
         assertEquals(proxyStore.get("event", "general"), null);
+
+        // a refresh that finds the same services does not change the generation
+        long generation = proxyStore.getGeneration();
+        proxyStore.update("storage", ImmutableSet.of(service2, service1));
+        assertEquals(proxyStore.getGeneration(), generation);
+
+        Service changedService1 = new Service(service1.getId(), service1.getNodeId(), "storage", "pool1", "/location/1", ImmutableMap.of("key", "changed"));
+        proxyStore.update("storage", ImmutableSet.of(changedService1, service2));
+        assertNotEquals(proxyStore.getGeneration(), generation);
+        assertEquals(proxyStore.get("storage", "pool1").iterator().next().getProperties(), changedService1.getProperties());
     }
 
     @Test
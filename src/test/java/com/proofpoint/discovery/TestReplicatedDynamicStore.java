@@ -16,22 +16,233 @@
 package com.proofpoint.discovery;
 
 import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.proofpoint.discovery.store.DistributedStore;
+import com.proofpoint.discovery.store.Entry;
 import com.proofpoint.discovery.store.InMemoryStore;
 import com.proofpoint.discovery.store.RemoteStore;
 import com.proofpoint.discovery.store.StoreConfig;
+import com.proofpoint.json.JsonCodec;
+import com.proofpoint.units.Duration;
 import org.joda.time.DateTime;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
 
 public class TestReplicatedDynamicStore
     extends TestDynamicStore
 {
+    private static final JsonCodec<List<Service>> CODEC = JsonCodec.listJsonCodec(Service.class);
+
+    private InMemoryStore localStore;
+    private DistributedStore distributedStore;
+
     @Override
     protected DynamicStore initializeStore(DiscoveryConfig config, Supplier<DateTime> timeSupplier)
     {
         RemoteStore dummy = entry -> { };
 
-        DistributedStore distributedStore = new DistributedStore("dynamic", new InMemoryStore(config), dummy, new StoreConfig(), timeSupplier);
+        localStore = new InMemoryStore(config);
+        distributedStore = new DistributedStore("dynamic", localStore, dummy, new StoreConfig(), timeSupplier);
 
         return new ReplicatedDynamicStore(distributedStore, config);
     }
+
+    @Test
+    public void testReadsJsonAndCompactValues()
+    {
+        DynamicStore compactStore = new ReplicatedDynamicStore(distributedStore, new DiscoveryConfig().setCompactValues(true));
+
+        Id<Node> nodeId = Id.random();
+        Service storage = new Service(Id.random(), nodeId, "storage", "poolA", "/a/b/c", ImmutableMap.of("http", "http://localhost:1111"));
+        long timestamp = currentTime.get().getMillis();
+
+        localStore.put(new Entry(nodeId.getBytes(), CODEC.toJsonBytes(ImmutableList.of(storage)), timestamp, null));
+        assertEquals(store.get("storage"), ImmutableSet.of(storage));
+        assertEquals(compactStore.get("storage"), ImmutableSet.of(storage));
+
+        DynamicAnnouncement announcement = new DynamicAnnouncement("testing", "poolA", "/a/b/c", ImmutableSet.of(
+                new DynamicServiceAnnouncement(storage.getId(), "storage", storage.getProperties())
+        ));
+        currentTime.increment();
+        compactStore.put(nodeId, announcement);
+
+        byte[] value = localStore.get(nodeId.getBytes()).getValue();
+        assertEquals(value[0], 1);
+        assertEquals(store.get("storage"), ImmutableSet.of(storage));
+        assertEquals(compactStore.get("storage"), ImmutableSet.of(storage));
+    }
+
+    @Test
+    public void testGetReplicated()
+    {
+        Id<Node> nodeId = Id.random();
+        Service storage = new Service(Id.random(), nodeId, "storage", "poolA", "/a/b/c", ImmutableMap.of("http", "http://localhost:1111"));
+        Service web = new Service(Id.random(), nodeId, "web", "poolA", "/a/b/c", ImmutableMap.of("http", "http://localhost:2222"));
+        long timestamp = currentTime.get().getMillis();
+
+        localStore.put(new Entry(nodeId.getBytes(), CODEC.toJsonBytes(ImmutableList.of(storage, web)), timestamp, null));
+
+        assertEquals(store.get("storage"), ImmutableSet.of(storage));
+        assertEquals(store.get("web", "poolA"), ImmutableSet.of(web));
+        assertTrue(store.get("web", "poolB").isEmpty());
+
+        localStore.put(new Entry(nodeId.getBytes(), CODEC.toJsonBytes(ImmutableList.of(storage)), timestamp + 1, null));
+
+        assertEquals(store.get("storage", "poolA"), ImmutableSet.of(storage));
+        assertTrue(store.get("web").isEmpty());
+
+        localStore.delete(nodeId.getBytes(), timestamp + 1);
+
+        assertTrue(store.get("storage").isEmpty());
+    }
+
+    @Test
+    public void testGeneration()
+    {
+        Id<Node> nodeId = Id.random();
+        DynamicAnnouncement announcement = new DynamicAnnouncement("testing", "poolA", "/a/b/c", ImmutableSet.of(
+                new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("http", "http://localhost:1111"))
+        ));
+
+        long generation = store.getGeneration();
+        store.put(nodeId, announcement);
+        assertNotEquals(store.getGeneration(), generation);
+
+        generation = store.getGeneration();
+        currentTime.increment();
+        store.put(nodeId, announcement);
+        assertEquals(store.getGeneration(), generation);
+
+        currentTime.add(new Duration(2, TimeUnit.MINUTES));
+        assertNotEquals(store.getGeneration(), generation);
+    }
+
+    @Test
+    public void testGetByProperties()
+    {
+        Id<Node> nodeId = Id.random();
+        Service storage1 = new Service(Id.random(), nodeId, "storage", "poolA", "/a/b/c", ImmutableMap.of("shard", "1", "http", "http://localhost:1111"));
+        Service storage2 = new Service(Id.random(), nodeId, "storage", "poolB", "/a/b/c", ImmutableMap.of("shard", "2", "http", "http://localhost:2222"));
+        Service web = new Service(Id.random(), nodeId, "web", "poolA", "/a/b/c", ImmutableMap.of("shard", "1"));
+        long timestamp = currentTime.get().getMillis();
+
+        localStore.put(new Entry(nodeId.getBytes(), CODEC.toJsonBytes(ImmutableList.of(storage1, storage2, web)), timestamp, null));
+
+        assertEquals(store.get("storage", null, ImmutableMap.of("shard", "1")), ImmutableSet.of(storage1));
+        assertEquals(store.get("storage", null, ImmutableMap.of()), ImmutableSet.of(storage1, storage2));
+        assertEquals(store.get("storage", "poolB", ImmutableMap.of("shard", "2")), ImmutableSet.of(storage2));
+        assertTrue(store.get("storage", "poolA", ImmutableMap.of("shard", "2")).isEmpty());
+        assertTrue(store.get("storage", null, ImmutableMap.of("shard", "1", "http", "http://localhost:2222")).isEmpty());
+        assertTrue(store.get("storage", null, ImmutableMap.of("shard", "3")).isEmpty());
+
+        localStore.put(new Entry(nodeId.getBytes(), CODEC.toJsonBytes(ImmutableList.of(storage2)), timestamp + 1, null));
+        assertTrue(store.get("storage", null, ImmutableMap.of("shard", "1")).isEmpty());
+        assertEquals(store.get("storage", null, ImmutableMap.of("shard", "2")), ImmutableSet.of(storage2));
+    }
+
+    @Test
+    public void testGetAllSnapshot()
+    {
+        Id<Node> nodeId = Id.random();
+        Service storage = new Service(Id.random(), nodeId, "storage", "poolA", "/a/b/c", ImmutableMap.of("http", "http://localhost:1111"));
+        long timestamp = currentTime.get().getMillis();
+
+        Set<Service> services = store.getAll();
+        assertTrue(services.isEmpty());
+        assertSame(store.getAll(), services);
+
+        localStore.put(new Entry(nodeId.getBytes(), CODEC.toJsonBytes(ImmutableList.of(storage)), timestamp, null));
+        services = store.getAll();
+        assertEquals(services, ImmutableSet.of(storage));
+        assertSame(store.getAll(), services);
+
+        // renewal doesn't change the content
+        localStore.put(new Entry(nodeId.getBytes(), CODEC.toJsonBytes(ImmutableList.of(storage)), timestamp + 1, null));
+        assertSame(store.getAll(), services);
+    }
+
+    @Test
+    public void testGetChanges()
+    {
+        Id<Node> nodeId = Id.random();
+        Service storage = new Service(Id.random(), nodeId, "storage", "poolA", "/a/b/c", ImmutableMap.of("http", "http://localhost:1111"));
+        Service web = new Service(Id.random(), nodeId, "web", "poolA", "/a/b/c", ImmutableMap.of("http", "http://localhost:2222"));
+        Service changedStorage = new Service(storage.getId(), nodeId, "storage", "poolA", "/a/b/c", ImmutableMap.of("http", "http://localhost:3333"));
+        long timestamp = currentTime.get().getMillis();
+
+        long generation = store.getGeneration();
+        localStore.put(new Entry(nodeId.getBytes(), CODEC.toJsonBytes(ImmutableList.of(storage, web)), timestamp, 60_000L));
+
+        ServiceChanges changes = store.getChanges("storage", generation);
+        assertEquals(changes.getUpdated(), ImmutableSet.of(storage));
+        assertTrue(changes.getRemoved().isEmpty());
+        generation = changes.getGeneration();
+
+        localStore.put(new Entry(nodeId.getBytes(), CODEC.toJsonBytes(ImmutableList.of(changedStorage, web)), timestamp + 1, 60_000L));
+        changes = store.getChanges("storage", generation);
+        assertEquals(changes.getUpdated().size(), 1);
+        assertEquals(changes.getUpdated().iterator().next().getProperties(), changedStorage.getProperties());
+        assertTrue(store.getChanges("web", generation).getUpdated().isEmpty());
+        generation = changes.getGeneration();
+
+        currentTime.add(new Duration(2, TimeUnit.MINUTES));
+        changes = store.getChanges("storage", generation);
+        assertTrue(changes.getUpdated().isEmpty());
+        assertEquals(changes.getRemoved(), ImmutableSet.of(storage.getId()));
+
+        assertNull(store.getChanges("storage", changes.getGeneration() + 1));
+    }
+
+    @Test
+    public void testExpiredEntryRemovedBeforeCheck()
+    {
+        Id<Node> nodeId = Id.random();
+        Service storage = new Service(Id.random(), nodeId, "storage", "poolA", "/a/b/c", ImmutableMap.of("http", "http://localhost:1111"));
+        long timestamp = currentTime.get().getMillis();
+
+        localStore.put(new Entry(nodeId.getBytes(), CODEC.toJsonBytes(ImmutableList.of(storage)), timestamp, 60_000L));
+        assertEquals(store.getAll(), ImmutableSet.of(storage));
+        long generation = store.getGeneration();
+
+        // garbage collected before the expiry is detected
+        currentTime.add(new Duration(2, TimeUnit.MINUTES));
+        distributedStore.removeExpiredEntries();
+
+        assertTrue(store.getAll().isEmpty());
+        assertNotEquals(store.getGeneration(), generation);
+        assertEquals(store.getChanges("storage", generation).getRemoved(), ImmutableSet.of(storage.getId()));
+    }
+
+    @Test
+    public void testGenerationChangesAfterIndex()
+    {
+        Id<Node> nodeId = Id.random();
+        Service storage = new Service(Id.random(), nodeId, "storage", "poolA", "/a/b/c", ImmutableMap.of("http", "http://localhost:1111"));
+        long timestamp = currentTime.get().getMillis();
+        long generation = store.getGeneration();
+
+        List<Long> updateGenerations = new ArrayList<>();
+        distributedStore.addUpdateListener((oldEntry, newEntry) -> updateGenerations.add(store.getGeneration()));
+        List<Set<Service>> changedServices = new ArrayList<>();
+        store.addChangeListener(() -> changedServices.add(store.get("storage")));
+
+        localStore.put(new Entry(nodeId.getBytes(), CODEC.toJsonBytes(ImmutableList.of(storage)), timestamp, 60_000L));
+        localStore.put(new Entry(nodeId.getBytes(), CODEC.toJsonBytes(ImmutableList.of()), timestamp + 1, 60_000L));
+
+        // the update is seen before the generation changes, the change after the index is updated
+        assertEquals(updateGenerations, ImmutableList.of(generation + 1));
+        assertEquals(changedServices, ImmutableList.of(ImmutableSet.of(storage), ImmutableSet.of()));
+    }
 }
@@ -15,9 +15,12 @@
  */
 package com.proofpoint.discovery;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
 import com.google.inject.Injector;
 import com.proofpoint.bootstrap.Bootstrap;
 import com.proofpoint.bootstrap.LifeCycleManager;
@@ -32,6 +35,7 @@ import com.proofpoint.node.NodeInfo;
 import com.proofpoint.node.testing.TestingNodeModule;
 import com.proofpoint.reporting.ReportingModule;
 import com.proofpoint.testing.Closeables;
+import com.proofpoint.units.Duration;
 import org.mockito.Mock;
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.AfterMethod;
@@ -39,10 +43,18 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 import org.weakref.jmx.testing.TestingMBeanModule;
 
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
 import java.net.URI;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.zip.GZIPInputStream;
 
+import static com.google.common.base.Charsets.UTF_8;
 import static com.google.common.collect.ImmutableSet.of;
 import static com.google.common.collect.Sets.union;
 import static com.proofpoint.bootstrap.Bootstrap.bootstrapApplication;
@@ -50,9 +62,15 @@ import static com.proofpoint.http.client.JsonResponseHandler.createJsonResponseH
 import static com.proofpoint.http.client.Request.Builder.prepareGet;
 import static com.proofpoint.http.client.StatusResponseHandler.createStatusResponseHandler;
 import static com.proofpoint.jaxrs.JaxrsBinder.jaxrsBinder;
+import static com.proofpoint.discovery.ServiceResource.INDEX_HEADER;
 import static com.proofpoint.jaxrs.JaxrsModule.explicitJaxrsModule;
 import static com.proofpoint.json.JsonCodec.mapJsonCodec;
 import static com.proofpoint.testing.Assertions.assertEqualsIgnoreOrder;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
+import static javax.ws.rs.core.Response.Status.NOT_MODIFIED;
 import static javax.ws.rs.core.Response.Status.OK;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.times;
@@ -61,6 +79,9 @@ import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
 
 @SuppressWarnings("unchecked")
 public class TestServiceResource
@@ -77,6 +98,9 @@ public class TestServiceResource
     private ProxyStore proxyStore;
     @Mock
     private InitializationTracker initializationTracker;
+    private TestingTimeSupplier currentTime;
+    private InMemoryDynamicStore dynamicStore;
+    private Id<Node> blueNodeId;
     private Map<String, Object> redStorageRepresentation;
     private Map<String, Object> redWebRepresentation;
     private Map<String, Object> greenStorageRepresentation;
@@ -89,7 +113,8 @@ public class TestServiceResource
     {
         initMocks(this);
 
-        InMemoryDynamicStore dynamicStore = new InMemoryDynamicStore(new DiscoveryConfig(), new TestingTimeSupplier());
+        currentTime = new TestingTimeSupplier();
+        dynamicStore = new InMemoryDynamicStore(new DiscoveryConfig(), currentTime);
         Id<Node> redNodeId = Id.random();
         DynamicServiceAnnouncement redStorage = new DynamicServiceAnnouncement(Id.random() , "storage", ImmutableMap.of("key", "1"));
         DynamicServiceAnnouncement redWeb = new DynamicServiceAnnouncement(Id.random(), "web", ImmutableMap.of("key", "2"));
@@ -99,7 +124,7 @@ public class TestServiceResource
         DynamicServiceAnnouncement greenStorage = new DynamicServiceAnnouncement(Id.random(), "storage", ImmutableMap.of("key", "3"));
         DynamicAnnouncement green = new DynamicAnnouncement("testing", "alpha", "/x/y/z", of(greenStorage));
 
-        Id<Node> blueNodeId = Id.random();
+        blueNodeId = Id.random();
         DynamicServiceAnnouncement blueStorage = new DynamicServiceAnnouncement(Id.random(), "storage", ImmutableMap.of("key", "4"));
         DynamicAnnouncement blue = new DynamicAnnouncement("testing", "beta", "/a/b/c", of(blueStorage));
 
@@ -183,6 +208,7 @@ public class TestServiceResource
                 "services", ImmutableList.of()));
 
         verify(proxyStore, times(3)).get(any(String.class));
+        verify(proxyStore, times(3)).getGeneration();
         verifyNoMoreInteractions(proxyStore);
     }
 
@@ -219,6 +245,7 @@ public class TestServiceResource
                 "services", ImmutableList.of()));
 
         verify(proxyStore, times(3)).get(any(String.class), any(String.class));
+        verify(proxyStore, times(3)).getGeneration();
         verifyNoMoreInteractions(proxyStore);
     }
 
@@ -241,9 +268,186 @@ public class TestServiceResource
         ));
 
         verify(proxyStore).filterAndGetAll(any(Set.class));
+        verify(proxyStore).getGeneration();
         verifyNoMoreInteractions(proxyStore);
     }
 
+    @Test
+    public void testGetByTypes()
+    {
+        when(proxyStore.get(any(String.class))).thenReturn(null);
+        when(proxyStore.get(any(String.class), any(String.class))).thenReturn(null);
+        when(configStore.get(any(String.class))).thenReturn(ImmutableSet.of());
+        when(configStore.get(any(String.class), any(String.class))).thenReturn(ImmutableSet.of());
+
+        Map<String, Object> actual = client.execute(
+                prepareGet().setUri(uriFor("/v1/service?type=storage&type=web")).build(),
+                createJsonResponseHandler(mapCodec, OK.getStatusCode()));
+        assertEquals(actual.keySet(), ImmutableSet.of("environment", "services"));
+        assertEqualsIgnoreOrder((Iterable<?>) actual.get("services"), ImmutableSet.of(
+                redStorageRepresentation,
+                redWebRepresentation,
+                greenStorageRepresentation,
+                blueStorageRepresentation
+        ));
+
+        actual = client.execute(
+                prepareGet().setUri(uriFor("/v1/service?type=storage&type=web&type=unknown&pool=alpha")).build(),
+                createJsonResponseHandler(mapCodec, OK.getStatusCode()));
+        assertEqualsIgnoreOrder((Iterable<?>) actual.get("services"), ImmutableSet.of(
+                redStorageRepresentation,
+                redWebRepresentation,
+                greenStorageRepresentation
+        ));
+
+        verify(proxyStore, times(3)).get(any(String.class));
+        verify(proxyStore, times(3)).get(any(String.class), any(String.class));
+        verify(proxyStore, times(2)).getGeneration();
+        verifyNoMoreInteractions(proxyStore);
+    }
+
+    @Test
+    public void testGetByProperty()
+    {
+        when(proxyStore.get(any(String.class))).thenReturn(null);
+        when(configStore.get(any(String.class))).thenReturn(ImmutableSet.of());
+
+        Map<String, Object> actual = client.execute(
+                prepareGet().setUri(uriFor("/v1/service/storage?property.key=3")).build(),
+                createJsonResponseHandler(mapCodec, OK.getStatusCode()));
+        assertEquals(actual, ImmutableMap.of(
+                "environment", "testing",
+                "services", ImmutableList.of(
+                        greenStorageRepresentation
+                )));
+
+        actual = client.execute(
+                prepareGet().setUri(uriFor("/v1/service/storage?property.key=2")).build(),
+                createJsonResponseHandler(mapCodec, OK.getStatusCode()));
+        assertEquals(actual, ImmutableMap.of(
+                "environment", "testing",
+                "services", ImmutableList.of()));
+
+        StatusResponse response = client.execute(
+                prepareGet().setUri(uriFor("/v1/service/storage?property.key=1&property.key=3")).build(),
+                createStatusResponseHandler());
+        assertEquals(response.getStatusCode(), BAD_REQUEST.getStatusCode());
+    }
+
+    @Test
+    public void testGetFields()
+    {
+        when(proxyStore.get(any(String.class), any(String.class))).thenReturn(null);
+        when(configStore.get(any(String.class), any(String.class))).thenReturn(ImmutableSet.of());
+
+        Map<String, Object> actual = client.execute(
+                prepareGet().setUri(uriFor("/v1/service/storage/beta?fields=id,properties.key,properties.missing")).build(),
+                createJsonResponseHandler(mapCodec, OK.getStatusCode()));
+        assertEquals(actual, ImmutableMap.of(
+                "environment", "testing",
+                "services", ImmutableList.of(ImmutableMap.of(
+                        "id", blueStorageRepresentation.get("id"),
+                        "properties", ImmutableMap.of("key", "4")
+                ))));
+
+        StatusResponse response = client.execute(
+                prepareGet().setUri(uriFor("/v1/service/storage/beta?fields=id,bogus")).build(),
+                createStatusResponseHandler());
+        assertEquals(response.getStatusCode(), BAD_REQUEST.getStatusCode());
+    }
+
+    @Test
+    public void testGetSubset()
+    {
+        when(proxyStore.get(any(String.class))).thenReturn(null);
+        when(configStore.get(any(String.class))).thenReturn(ImmutableSet.of());
+
+        List<Object> services = null;
+        for (int i = 0; i < 2; i++) {
+            Map<String, Object> actual = client.execute(
+                    prepareGet().setUri(uriFor("/v1/service/storage?subset=2&client=client-a")).build(),
+                    createJsonResponseHandler(mapCodec, OK.getStatusCode()));
+            if (services == null) {
+                services = (List<Object>) actual.get("services");
+            }
+            assertEquals(actual.get("services"), services);
+        }
+        assertEquals(services.size(), 2);
+        assertTrue(ImmutableSet.of(redStorageRepresentation, greenStorageRepresentation, blueStorageRepresentation).containsAll(services));
+
+        StatusResponse response = client.execute(
+                prepareGet().setUri(uriFor("/v1/service/storage?subset=2")).build(),
+                createStatusResponseHandler());
+        assertEquals(response.getStatusCode(), BAD_REQUEST.getStatusCode());
+
+        response = client.execute(
+                prepareGet().setUri(uriFor("/v1/service/storage?subset=0&client=client-a")).build(),
+                createStatusResponseHandler());
+        assertEquals(response.getStatusCode(), BAD_REQUEST.getStatusCode());
+    }
+
+    @Test
+    public void testGetNear()
+    {
+        when(proxyStore.get(any(String.class))).thenReturn(null);
+        when(configStore.get(any(String.class))).thenReturn(ImmutableSet.of());
+
+        Map<String, Object> actual = client.execute(
+                prepareGet().setUri(uriFor("/v1/service/storage?near=/x/y/q")).build(),
+                createJsonResponseHandler(mapCodec, OK.getStatusCode()));
+        List<Object> services = (List<Object>) actual.get("services");
+        assertEquals(services.size(), 3);
+        assertEquals(services.get(0), greenStorageRepresentation);
+
+        actual = client.execute(
+                prepareGet().setUri(uriFor("/v1/service/storage?near=/x/y/q&depth=1")).build(),
+                createJsonResponseHandler(mapCodec, OK.getStatusCode()));
+        assertEquals(actual, ImmutableMap.of(
+                "environment", "testing",
+                "services", ImmutableList.of(
+                        greenStorageRepresentation
+                )));
+
+        StatusResponse response = client.execute(
+                prepareGet().setUri(uriFor("/v1/service/storage?depth=1")).build(),
+                createStatusResponseHandler());
+        assertEquals(response.getStatusCode(), BAD_REQUEST.getStatusCode());
+    }
+
+    @Test
+    public void testCachedUntilChanged()
+    {
+        when(proxyStore.get(any(String.class), any(String.class))).thenReturn(null);
+        when(configStore.get(any(String.class), any(String.class))).thenReturn(ImmutableSet.of());
+
+        for (int i = 0; i < 2; i++) {
+            Map<String, Object> actual = client.execute(
+                    prepareGet().setUri(uriFor("/v1/service/storage/beta")).build(),
+                    createJsonResponseHandler(mapCodec, OK.getStatusCode()));
+            assertEquals(actual, ImmutableMap.of(
+                    "environment", "testing",
+                    "services", ImmutableList.of(
+                            blueStorageRepresentation
+                    )));
+        }
+        verify(configStore).get("storage", "beta");
+
+        Id<Node> yellowNodeId = Id.random();
+        DynamicServiceAnnouncement yellowStorage = new DynamicServiceAnnouncement(Id.random(), "storage", ImmutableMap.of("key", "5"));
+        DynamicAnnouncement yellow = new DynamicAnnouncement("testing", "beta", "/a/b/c", of(yellowStorage));
+        dynamicStore.put(yellowNodeId, yellow);
+
+        Map<String, Object> actual = client.execute(
+                prepareGet().setUri(uriFor("/v1/service/storage/beta")).build(),
+                createJsonResponseHandler(mapCodec, OK.getStatusCode()));
+        assertEquals(actual.keySet(), ImmutableSet.of("environment", "services"));
+        assertEqualsIgnoreOrder((Iterable<?>) actual.get("services"), ImmutableSet.of(
+                blueStorageRepresentation,
+                toServiceRepresentation(yellowNodeId, yellow, yellowStorage)
+        ));
+        verify(configStore, times(2)).get("storage", "beta");
+    }
+
     @Test
     public void testProxyGetByType()
     {
@@ -406,6 +610,337 @@ public class TestServiceResource
         ));
     }
 
+    @Test
+    public void testEntityTag()
+    {
+        when(proxyStore.get(any(String.class), any(String.class))).thenReturn(null);
+        when(configStore.get(any(String.class), any(String.class))).thenReturn(ImmutableSet.of());
+
+        StatusResponse response = client.execute(
+                prepareGet().setUri(uriFor("/v1/service/storage/alpha")).build(),
+                createStatusResponseHandler());
+        assertEquals(response.getStatusCode(), OK.getStatusCode());
+        String entityTag = response.getHeader("ETag");
+        assertNotNull(entityTag);
+        // the representation depends on both the format and the encoding
+        assertEquals(response.getHeader("Vary"), "Accept, Accept-Encoding");
+
+        response = client.execute(
+                prepareGet().setUri(uriFor("/v1/service/storage/alpha")).setHeader("If-None-Match", entityTag).build(),
+                createStatusResponseHandler());
+        assertEquals(response.getStatusCode(), NOT_MODIFIED.getStatusCode());
+        assertEquals(response.getHeader("ETag"), entityTag);
+
+        response = client.execute(
+                prepareGet().setUri(uriFor("/v1/service/storage/beta")).setHeader("If-None-Match", entityTag).build(),
+                createStatusResponseHandler());
+        assertEquals(response.getStatusCode(), OK.getStatusCode());
+        assertNotEquals(response.getHeader("ETag"), entityTag);
+    }
+
+    @Test
+    public void testLongPoll()
+            throws Exception
+    {
+        when(proxyStore.get(any(String.class), any(String.class))).thenReturn(null);
+        when(configStore.get(any(String.class), any(String.class))).thenReturn(ImmutableSet.of());
+
+        StatusResponse response = client.execute(
+                prepareGet().setUri(uriFor("/v1/service/storage/beta")).build(),
+                createStatusResponseHandler());
+        assertEquals(response.getStatusCode(), OK.getStatusCode());
+        long index = Long.parseLong(response.getHeader(INDEX_HEADER));
+        String entityTag = response.getHeader("ETag");
+
+        // unchanged until the wait elapses
+        response = client.execute(
+                prepareGet().setUri(uriFor("/v1/service/storage/beta?index=" + index + "&wait=100ms")).setHeader("If-None-Match", entityTag).build(),
+                createStatusResponseHandler());
+        assertEquals(response.getStatusCode(), NOT_MODIFIED.getStatusCode());
+        assertEquals(Long.parseLong(response.getHeader(INDEX_HEADER)), index);
+
+        // the index alone is enough to wait
+        long start = System.nanoTime();
+        response = client.execute(
+                prepareGet().setUri(uriFor("/v1/service/storage/beta?index=" + index + "&wait=100ms")).build(),
+                createStatusResponseHandler());
+        assertTrue(System.nanoTime() - start >= MILLISECONDS.toNanos(100));
+        assertEquals(response.getStatusCode(), OK.getStatusCode());
+        assertEquals(Long.parseLong(response.getHeader(INDEX_HEADER)), index);
+
+        // a change to another pool does not complete the poll
+        Id<Node> redNodeId = Id.random();
+        DynamicServiceAnnouncement redStorage = new DynamicServiceAnnouncement(Id.random(), "storage", ImmutableMap.of("key", "6"));
+        dynamicStore.put(redNodeId, new DynamicAnnouncement("testing", "alpha", "/a/b/c", of(redStorage)));
+        response = client.execute(
+                prepareGet().setUri(uriFor("/v1/service/storage/beta?index=" + index + "&wait=100ms")).setHeader("If-None-Match", entityTag).build(),
+                createStatusResponseHandler());
+        assertEquals(response.getStatusCode(), NOT_MODIFIED.getStatusCode());
+        assertEquals(Long.parseLong(response.getHeader(INDEX_HEADER)), index);
+
+        Id<Node> yellowNodeId = Id.random();
+        DynamicServiceAnnouncement yellowStorage = new DynamicServiceAnnouncement(Id.random(), "storage", ImmutableMap.of("key", "5"));
+        DynamicAnnouncement yellow = new DynamicAnnouncement("testing", "beta", "/a/b/c", of(yellowStorage));
+        ScheduledExecutorService executor = newSingleThreadScheduledExecutor();
+        try {
+            executor.schedule(() -> dynamicStore.put(yellowNodeId, yellow), 200, MILLISECONDS);
+
+            start = System.nanoTime();
+            response = client.execute(
+                    prepareGet().setUri(uriFor("/v1/service/storage/beta?index=" + index + "&wait=30s")).setHeader("If-None-Match", entityTag).build(),
+                    createStatusResponseHandler());
+            assertTrue(System.nanoTime() - start < MILLISECONDS.toNanos(10_000));
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        assertEquals(response.getStatusCode(), OK.getStatusCode());
+        long newIndex = Long.parseLong(response.getHeader(INDEX_HEADER));
+        assertTrue(newIndex > index);
+
+        Map<String, Object> actual = client.execute(
+                prepareGet().setUri(uriFor("/v1/service/storage/beta?index=" + index)).build(),
+                createJsonResponseHandler(mapCodec, OK.getStatusCode()));
+        assertEqualsIgnoreOrder((Iterable<?>) actual.get("services"), ImmutableSet.of(
+                blueStorageRepresentation,
+                toServiceRepresentation(yellowNodeId, yellow, yellowStorage)
+        ));
+    }
+
+    @Test
+    public void testLongPollOtherServerIndex()
+    {
+        when(proxyStore.get(any(String.class), any(String.class))).thenReturn(null);
+        when(configStore.get(any(String.class), any(String.class))).thenReturn(ImmutableSet.of());
+
+        StatusResponse response = client.execute(
+                prepareGet().setUri(uriFor("/v1/service/storage/beta")).build(),
+                createStatusResponseHandler());
+        String entityTag = response.getHeader("ETag");
+
+        // an index from another server does not suspend a client without the current content
+        long start = System.nanoTime();
+        response = client.execute(
+                prepareGet().setUri(uriFor("/v1/service/storage/beta?index=" + Long.MAX_VALUE + "&wait=30s")).setHeader("If-None-Match", "\"other\"").build(),
+                createStatusResponseHandler());
+        assertTrue(System.nanoTime() - start < MILLISECONDS.toNanos(10_000));
+        assertEquals(response.getStatusCode(), OK.getStatusCode());
+        assertEquals(response.getHeader("ETag"), entityTag);
+
+        // nor does it suspend a client that only sends the index
+        start = System.nanoTime();
+        response = client.execute(
+                prepareGet().setUri(uriFor("/v1/service/storage/beta?index=" + Long.MAX_VALUE + "&wait=30s")).build(),
+                createStatusResponseHandler());
+        assertTrue(System.nanoTime() - start < MILLISECONDS.toNanos(10_000));
+        assertEquals(response.getStatusCode(), OK.getStatusCode());
+    }
+
+    @Test
+    public void testChangesSince()
+    {
+        when(proxyStore.get(any(String.class))).thenReturn(null);
+        when(configStore.get(any(String.class))).thenReturn(ImmutableSet.of());
+
+        Map<String, Object> actual = client.execute(
+                prepareGet().setUri(uriFor("/v1/service/storage?since=" + Long.MAX_VALUE)).build(),
+                createJsonResponseHandler(mapCodec, OK.getStatusCode()));
+        assertEquals(actual.get("complete"), true);
+        assertEqualsIgnoreOrder((Iterable<?>) actual.get("services"), ImmutableSet.of(
+                redStorageRepresentation,
+                greenStorageRepresentation,
+                blueStorageRepresentation
+        ));
+        String version = (String) actual.get("version");
+
+        Id<Node> yellowNodeId = Id.random();
+        DynamicServiceAnnouncement yellowStorage = new DynamicServiceAnnouncement(Id.random(), "storage", ImmutableMap.of("key", "5"));
+        DynamicAnnouncement yellow = new DynamicAnnouncement("testing", "beta", "/a/b/c", of(yellowStorage));
+        dynamicStore.put(yellowNodeId, yellow);
+        dynamicStore.delete(blueNodeId);
+
+        actual = client.execute(
+                prepareGet().setUri(uriFor("/v1/service/storage?since=" + version)).build(),
+                createJsonResponseHandler(mapCodec, OK.getStatusCode()));
+        assertEquals(actual, ImmutableMap.of(
+                "environment", "testing",
+                "version", actual.get("version"),
+                "complete", false,
+                "services", ImmutableList.of(toServiceRepresentation(yellowNodeId, yellow, yellowStorage)),
+                "removed", ImmutableList.of(blueStorageRepresentation.get("id"))));
+        assertNotEquals(actual.get("version"), version);
+    }
+
+    @Test
+    public void testChangesSinceOtherServer()
+    {
+        when(proxyStore.get(any(String.class))).thenReturn(null);
+        when(configStore.get(any(String.class))).thenReturn(ImmutableSet.of());
+
+        Map<String, Object> actual = client.execute(
+                prepareGet().setUri(uriFor("/v1/service/storage?since=" + Long.MAX_VALUE)).build(),
+                createJsonResponseHandler(mapCodec, OK.getStatusCode()));
+        String version = (String) actual.get("version");
+        String generation = version.substring(version.lastIndexOf(':') + 1);
+
+        // same generation, issued by another server
+        actual = client.execute(
+                prepareGet().setUri(uriFor("/v1/service/storage?since=other-node:0:" + generation)).build(),
+                createJsonResponseHandler(mapCodec, OK.getStatusCode()));
+        assertEquals(actual.get("complete"), true);
+        assertEqualsIgnoreOrder((Iterable<?>) actual.get("services"), ImmutableSet.of(
+                redStorageRepresentation,
+                greenStorageRepresentation,
+                blueStorageRepresentation
+        ));
+        assertEquals(actual.get("version"), version);
+    }
+
+    @Test
+    public void testGetSmile()
+            throws Exception
+    {
+        when(proxyStore.get(any(String.class), any(String.class))).thenReturn(null);
+        when(configStore.get(any(String.class), any(String.class))).thenReturn(ImmutableSet.of());
+
+        HttpURLConnection connection = (HttpURLConnection) uriFor("/v1/service/storage/beta").toURL().openConnection();
+        connection.setRequestProperty("Accept", "application/x-jackson-smile");
+        try (InputStream input = connection.getInputStream()) {
+            assertEquals(connection.getResponseCode(), OK.getStatusCode());
+            assertEquals(connection.getContentType(), "application/x-jackson-smile");
+            Map<String, Object> actual = new ObjectMapper(new SmileFactory()).readValue(input, Map.class);
+            assertEquals(actual, ImmutableMap.of(
+                    "environment", "testing",
+                    "services", ImmutableList.of(
+                            blueStorageRepresentation
+                    )));
+        }
+        finally {
+            connection.disconnect();
+        }
+    }
+
+    @Test
+    public void testGetGzip()
+            throws Exception
+    {
+        when(proxyStore.get(any(String.class), any(String.class))).thenReturn(null);
+        when(configStore.get(any(String.class), any(String.class))).thenReturn(ImmutableSet.of());
+
+        for (int i = 0; i < 2; i++) {
+            HttpURLConnection connection = (HttpURLConnection) uriFor("/v1/service/storage/beta").toURL().openConnection();
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            try (InputStream input = new GZIPInputStream(connection.getInputStream())) {
+                assertEquals(connection.getResponseCode(), OK.getStatusCode());
+                assertEquals(connection.getHeaderField("Content-Encoding"), "gzip");
+                assertEquals(mapCodec.fromJson(new String(ByteStreams.toByteArray(input), UTF_8)), ImmutableMap.of(
+                        "environment", "testing",
+                        "services", ImmutableList.of(
+                                blueStorageRepresentation
+                        )));
+            }
+            finally {
+                connection.disconnect();
+            }
+        }
+    }
+
+    @Test
+    public void testCacheControl()
+            throws Exception
+    {
+        when(proxyStore.get(any(String.class), any(String.class))).thenReturn(null);
+        when(configStore.get(any(String.class), any(String.class))).thenReturn(ImmutableSet.of());
+
+        // the announcements expire 90 seconds after they were made
+        currentTime.add(new Duration(60, SECONDS));
+
+        HttpURLConnection connection = (HttpURLConnection) uriFor("/v1/service/storage/beta").toURL().openConnection();
+        try {
+            assertEquals(connection.getResponseCode(), OK.getStatusCode());
+            assertEquals(connection.getHeaderField("Cache-Control"), "max-age=30");
+            long expires = connection.getHeaderFieldDate("Expires", 0);
+            long expected = System.currentTimeMillis() + SECONDS.toMillis(30);
+            assertTrue(Math.abs(expires - expected) < SECONDS.toMillis(5), "Expires is not about 30 seconds away");
+        }
+        finally {
+            connection.disconnect();
+        }
+    }
+
+    @Test
+    public void testCacheControlRoundsUp()
+            throws Exception
+    {
+        when(proxyStore.get(any(String.class), any(String.class))).thenReturn(null);
+        when(configStore.get(any(String.class), any(String.class))).thenReturn(ImmutableSet.of());
+
+        currentTime.add(new Duration(89_500, MILLISECONDS));
+
+        HttpURLConnection connection = (HttpURLConnection) uriFor("/v1/service/storage/beta").toURL().openConnection();
+        try {
+            assertEquals(connection.getResponseCode(), OK.getStatusCode());
+            assertEquals(connection.getHeaderField("Cache-Control"), "max-age=1");
+            long expires = connection.getHeaderFieldDate("Expires", 0);
+            long expected = System.currentTimeMillis() + SECONDS.toMillis(1);
+            assertTrue(Math.abs(expires - expected) < SECONDS.toMillis(5), "Expires is not about a second away");
+        }
+        finally {
+            connection.disconnect();
+        }
+    }
+
+    @Test
+    public void testEventStream()
+            throws Exception
+    {
+        when(configStore.get(any(String.class))).thenReturn(ImmutableSet.of());
+
+        HttpURLConnection connection = (HttpURLConnection) uriFor("/v1/service?type=web").toURL().openConnection();
+        connection.setRequestProperty("Accept", "text/event-stream");
+        connection.setReadTimeout(10_000);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), UTF_8))) {
+            assertEquals(connection.getResponseCode(), OK.getStatusCode());
+            assertEquals(reader.readLine(), "event: add");
+            assertEquals(mapCodec.fromJson(reader.readLine().substring("data: ".length())), redWebRepresentation);
+            assertEquals(reader.readLine(), "");
+
+            Id<Node> yellowNodeId = Id.random();
+            DynamicServiceAnnouncement yellowWeb = new DynamicServiceAnnouncement(Id.random(), "web", ImmutableMap.of("key", "5"));
+            DynamicAnnouncement yellow = new DynamicAnnouncement("testing", "beta", "/a/b/c", of(yellowWeb));
+            dynamicStore.put(yellowNodeId, yellow);
+
+            assertEquals(reader.readLine(), "event: add");
+            assertEquals(mapCodec.fromJson(reader.readLine().substring("data: ".length())), toServiceRepresentation(yellowNodeId, yellow, yellowWeb));
+            assertEquals(reader.readLine(), "");
+
+            dynamicStore.delete(yellowNodeId);
+
+            assertEquals(reader.readLine(), "event: remove");
+            assertEquals(mapCodec.fromJson(reader.readLine().substring("data: ".length())), toServiceRepresentation(yellowNodeId, yellow, yellowWeb));
+        }
+        finally {
+            connection.disconnect();
+        }
+    }
+
+    @Test
+    public void testLongPollInvalidWait()
+    {
+        when(proxyStore.get(any(String.class))).thenReturn(null);
+        when(configStore.get(any(String.class))).thenReturn(ImmutableSet.of());
+
+        StatusResponse response = client.execute(
+                prepareGet().setUri(uriFor("/v1/service/storage?index=" + Long.MAX_VALUE + "&wait=forever")).build(),
+                createStatusResponseHandler());
+        assertEquals(response.getStatusCode(), BAD_REQUEST.getStatusCode());
+
+        response = client.execute(
+                prepareGet().setUri(uriFor("/v1/service/storage?index=" + Long.MAX_VALUE + "&wait=0s")).build(),
+                createStatusResponseHandler());
+        assertEquals(response.getStatusCode(), BAD_REQUEST.getStatusCode());
+    }
+
     @Test
     public void testGetByTypeInitializationPending()
     {
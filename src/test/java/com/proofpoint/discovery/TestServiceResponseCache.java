@@ -0,0 +1,137 @@
+/*
+ * Copyright 2016 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.discovery;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.proofpoint.discovery.ServiceResponseCache.Format;
+import com.proofpoint.discovery.ServiceResponseCache.SerializedServices;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.util.concurrent.MoreExecutors.listeningDecorator;
+import static com.google.common.util.concurrent.Uninterruptibles.awaitUninterruptibly;
+import static com.proofpoint.discovery.ServiceResponseCache.Query.servicesOf;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestServiceResponseCache
+{
+    private final Set<Service> services = ImmutableSet.of(
+            new Service(Id.random(), Id.random(), "storage", "alpha", "/a/b/c", ImmutableMap.of("key", "1")));
+
+    private ServiceResponseCache cache;
+    private ListeningExecutorService executor;
+
+    @BeforeMethod
+    public void setup()
+    {
+        cache = new ServiceResponseCache("testing");
+        executor = listeningDecorator(newCachedThreadPool());
+    }
+
+    @AfterMethod
+    public void teardown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testCachedPerGeneration()
+    {
+        AtomicInteger loads = new AtomicInteger();
+        SerializedServices first = cache.get(servicesOf("storage"), Format.JSON, 1, () -> {
+            loads.incrementAndGet();
+            return services;
+        });
+        assertSame(cache.get(servicesOf("storage"), Format.JSON, 1, () -> {
+            throw new AssertionError("should not load");
+        }), first);
+        assertEquals(loads.get(), 1);
+
+        SerializedServices second = cache.get(servicesOf("storage"), Format.JSON, 2, () -> {
+            loads.incrementAndGet();
+            return services;
+        });
+        assertEquals(loads.get(), 2);
+        assertNotSame(second, first);
+        assertEquals(second.getEntityTag(), first.getEntityTag());
+        assertEquals(second.getIndex(), 1);
+        assertEquals(second.getGeneration(), 2);
+    }
+
+    @Test
+    public void testConcurrentLookupsShareLoad()
+            throws Exception
+    {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+
+        List<ListenableFuture<SerializedServices>> futures = new ArrayList<>();
+        futures.add(executor.submit(() -> cache.get(servicesOf("storage"), Format.JSON, 1, () -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            awaitUninterruptibly(release);
+            return services;
+        })));
+        assertTrue(loading.await(10, SECONDS));
+
+        for (int i = 0; i < 10; i++) {
+            futures.add(executor.submit(() -> cache.get(servicesOf("storage"), Format.JSON, 1, () -> {
+                loads.incrementAndGet();
+                return services;
+            })));
+        }
+        release.countDown();
+
+        SerializedServices first = futures.get(0).get(10, SECONDS);
+        for (ListenableFuture<SerializedServices> future : futures) {
+            assertSame(future.get(10, SECONDS), first);
+        }
+        assertEquals(loads.get(), 1);
+    }
+
+    @Test
+    public void testFailedLoadNotCached()
+    {
+        try {
+            cache.get(servicesOf("storage"), Format.JSON, 1, () -> {
+                throw new IllegalStateException("failed");
+            });
+            fail("expected IllegalStateException");
+        }
+        catch (IllegalStateException ignored) {
+        }
+
+        SerializedServices serialized = cache.get(servicesOf("storage"), Format.JSON, 1, () -> services);
+        assertEquals(serialized.getGeneration(), 1);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2016 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.discovery;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import org.testng.annotations.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestServiceSubset
+{
+    @Test
+    public void testSmallerThanSubset()
+    {
+        Set<Service> services = createServices(3);
+        assertEquals(ServiceSubset.of("client", 5).select(services), services);
+    }
+
+    @Test
+    public void testStable()
+    {
+        Set<Service> services = createServices(100);
+        Set<Service> subset = ServiceSubset.of("client", 10).select(services);
+        assertEquals(subset.size(), 10);
+        assertTrue(services.containsAll(subset));
+        assertEquals(ServiceSubset.of("client", 10).select(ImmutableSet.copyOf(services)), subset);
+    }
+
+    @Test
+    public void testMinimalDisruption()
+    {
+        Set<Service> services = createServices(100);
+        Set<Service> subset = ServiceSubset.of("client", 10).select(services);
+
+        // removing a service only replaces that service
+        Service removed = subset.iterator().next();
+        Set<Service> newSubset = ServiceSubset.of("client", 10).select(ImmutableSet.copyOf(Sets.difference(services, ImmutableSet.of(removed))));
+        assertEquals(newSubset.size(), 10);
+        assertEquals(Sets.intersection(subset, newSubset).size(), 9);
+
+        // adding services displaces at most as many
+        Set<Service> added = createServices(5);
+        newSubset = ServiceSubset.of("client", 10).select(ImmutableSet.copyOf(Sets.union(services, added)));
+        assertEquals(newSubset.size(), 10);
+        assertTrue(Sets.difference(newSubset, subset).size() <= 5);
+        assertTrue(Sets.union(subset, added).containsAll(newSubset));
+    }
+
+    @Test
+    public void testEvenSpread()
+    {
+        Set<Service> services = createServices(100);
+        Map<Service, Integer> counts = new HashMap<>();
+        for (int client = 0; client < 1000; client++) {
+            for (Service service : ServiceSubset.of("client-" + client, 10).select(services)) {
+                counts.merge(service, 1, Integer::sum);
+            }
+        }
+
+        // each service expects 100 clients
+        assertEquals(counts.size(), 100);
+        for (int count : counts.values()) {
+            assertTrue(count > 50 && count < 150, "count " + count + " is uneven");
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidSize()
+    {
+        ServiceSubset.of("client", 0);
+    }
+
+    private static Set<Service> createServices(int count)
+    {
+        ImmutableSet.Builder<Service> builder = ImmutableSet.builder();
+        for (int i = 0; i < count; i++) {
+            builder.add(new Service(Id.random(), Id.random(), "storage", "pool", "/location", ImmutableMap.of("key", String.valueOf(i))));
+        }
+        return builder.build();
+    }
+}
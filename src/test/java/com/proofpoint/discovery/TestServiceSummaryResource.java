@@ -0,0 +1,101 @@
+/*
+ * Copyright 2016 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.discovery;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.proofpoint.discovery.DiscoveryConfig.StringSet;
+import com.proofpoint.node.NodeInfo;
+import org.mockito.Mock;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.ws.rs.WebApplicationException;
+import java.util.Set;
+
+import static com.google.common.collect.Sets.union;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.fail;
+
+public class TestServiceSummaryResource
+{
+    @Mock
+    private ConfigStore configStore;
+    @Mock
+    private ProxyStore proxyStore;
+    @Mock
+    private InitializationTracker initializationTracker;
+    private InMemoryDynamicStore dynamicStore;
+    private ServiceSummaryResource resource;
+
+    @BeforeMethod
+    public void setup()
+    {
+        initMocks(this);
+
+        dynamicStore = new InMemoryDynamicStore(new DiscoveryConfig(), new TestingTimeSupplier());
+        dynamicStore.put(Id.random(), new DynamicAnnouncement("testing", "alpha", "/a/b/c", ImmutableSet.of(
+                new DynamicServiceAnnouncement(Id.random(), "storage", ImmutableMap.of("key", "1")),
+                new DynamicServiceAnnouncement(Id.random(), "web", ImmutableMap.of("key", "2")))));
+        dynamicStore.put(Id.random(), new DynamicAnnouncement("testing", "beta", "/a/b/c", ImmutableSet.of(
+                new DynamicServiceAnnouncement(Id.random(), "storage", ImmutableMap.of("key", "3")))));
+
+        Set<Service> staticServices = ImmutableSet.of(
+                new Service(Id.random(), null, "storage", "alpha", "/x/y/z", ImmutableMap.of("key", "4")),
+                new Service(Id.random(), null, "cache", "alpha", "/x/y/z", ImmutableMap.of("key", "5")));
+        Set<Service> proxiedServices = ImmutableSet.of(
+                new Service(Id.random(), Id.random(), "proxied", "alpha", "/x/y/z", ImmutableMap.of("key", "6")),
+                new Service(Id.random(), Id.random(), "proxied", "alpha", "/x/y/z", ImmutableMap.of("key", "7")));
+        when(configStore.getAll()).thenReturn(staticServices);
+        when(proxyStore.filterAndGetAll(any(Set.class))).thenReturn(ImmutableSet.copyOf(union(staticServices, proxiedServices)));
+
+        resource = new ServiceSummaryResource(dynamicStore, configStore, proxyStore, new NodeInfo("testing"),
+                new DiscoveryConfig().setProxyProxiedTypes(StringSet.of("proxied")), initializationTracker);
+    }
+
+    @Test
+    public void testGetSummary()
+    {
+        long index = dynamicStore.getGeneration();
+        ServicesSummary summary = resource.getSummary();
+
+        assertEquals(summary.getEnvironment(), "testing");
+        assertEquals(summary.getPools(), ImmutableList.of(
+                new PoolSummary("cache", "alpha", 1, null),
+                new PoolSummary("proxied", "alpha", 2, null),
+                new PoolSummary("storage", "alpha", 2, index - 1),
+                new PoolSummary("storage", "beta", 1, index),
+                new PoolSummary("web", "alpha", 1, index - 1)
+        ));
+    }
+
+    @Test
+    public void testNotInitialized()
+    {
+        when(initializationTracker.isPending()).thenReturn(true);
+        try {
+            resource.getSummary();
+            fail("expected WebApplicationException");
+        }
+        catch (WebApplicationException e) {
+            assertEquals(e.getResponse().getStatus(), 503);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2016 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.discovery;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.proofpoint.json.JsonCodec;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestServiceValueCodec
+{
+    private static final JsonCodec<List<Service>> JSON_CODEC = JsonCodec.listJsonCodec(Service.class);
+
+    private final Id<Node> nodeId = Id.random();
+    private final List<Service> services = ImmutableList.of(
+            new Service(Id.random(), nodeId, "storage", "pool", "/a/b/c", ImmutableMap.of("http", "http://localhost:1111", "https", "https://localhost:1112")),
+            new Service(Id.random(), nodeId, "web", "pool", "/a/b/c", ImmutableMap.of("http", "http://localhost:2222", "https", "https://localhost:2223"))
+    );
+
+    @Test
+    public void testCompactRoundTrip()
+    {
+        ServiceValueCodec codec = new ServiceValueCodec(true);
+        byte[] value = codec.encode(services);
+
+        assertEquals(value[0], 1);
+        assertEquals(codec.decode(value), services);
+    }
+
+    @Test
+    public void testCompactIsSmaller()
+    {
+        byte[] compact = new ServiceValueCodec(true).encode(services);
+        byte[] json = JSON_CODEC.toJsonBytes(services);
+
+        assertTrue(compact.length < json.length, "compact value of " + compact.length + " bytes is not smaller than JSON of " + json.length + " bytes");
+    }
+
+    @Test
+    public void testReadsJson()
+    {
+        byte[] value = JSON_CODEC.toJsonBytes(services);
+
+        assertEquals(new ServiceValueCodec(true).decode(value), services);
+        assertEquals(new ServiceValueCodec(false).decode(value), services);
+    }
+
+    @Test
+    public void testWritesJson()
+    {
+        ServiceValueCodec codec = new ServiceValueCodec(false);
+        byte[] value = codec.encode(services);
+
+        assertEquals(JSON_CODEC.fromJson(value), services);
+        assertEquals(codec.decode(value), services);
+    }
+}
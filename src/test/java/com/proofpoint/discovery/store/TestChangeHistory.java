@@ -0,0 +1,90 @@
+/*
+ * Copyright 2016 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.discovery.store;
+
+import com.google.common.collect.ImmutableList;
+import com.proofpoint.discovery.store.ChangeHistory.Change;
+import org.testng.annotations.Test;
+
+import java.util.Collection;
+import java.util.List;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class TestChangeHistory
+{
+    @Test
+    public void testChangesSince()
+    {
+        ChangeHistory history = new ChangeHistory(10);
+        Entry blue1 = entryOf("blue", "apple", 1);
+        Entry blue2 = entryOf("blue", "banana", 2);
+        Entry red = entryOf("red", "cherry", 3);
+
+        history.add(1, null, blue1);
+        history.add(2, blue1, blue2);
+        history.add(3, null, red);
+        history.add(4, red, null);
+
+        List<Change> changes = ImmutableList.copyOf(history.getChangesSince(0));
+        assertEquals(changes.size(), 2);
+        assertChange(changes.get(0), null, blue2, 2);
+        assertChange(changes.get(1), null, null, 4);
+
+        changes = ImmutableList.copyOf(history.getChangesSince(1));
+        assertEquals(changes.size(), 2);
+        assertChange(changes.get(0), blue1, blue2, 2);
+
+        changes = ImmutableList.copyOf(history.getChangesSince(3));
+        assertEquals(changes.size(), 1);
+        assertChange(changes.get(0), red, null, 4);
+
+        assertTrue(history.getChangesSince(4).isEmpty());
+    }
+
+    @Test
+    public void testDiscarded()
+    {
+        ChangeHistory history = new ChangeHistory(2);
+        Entry blue = entryOf("blue", "apple", 1);
+        Entry red = entryOf("red", "banana", 2);
+        Entry green = entryOf("green", "cherry", 3);
+
+        history.add(1, null, blue);
+        history.add(2, null, red);
+        history.add(3, null, green);
+
+        assertNull(history.getChangesSince(0));
+        Collection<Change> changes = history.getChangesSince(1);
+        assertEquals(changes.size(), 2);
+    }
+
+    private static void assertChange(Change change, Entry oldEntry, Entry newEntry, long generation)
+    {
+        assertSame(change.getOldEntry(), oldEntry);
+        assertSame(change.getNewEntry(), newEntry);
+        assertEquals(change.getGeneration(), generation);
+    }
+
+    private static Entry entryOf(String key, String value, long timestamp)
+    {
+        return new Entry(key.getBytes(UTF_8), value.getBytes(UTF_8), timestamp, null);
+    }
+}
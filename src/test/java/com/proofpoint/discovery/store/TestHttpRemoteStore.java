@@ -129,6 +129,34 @@ public class TestHttpRemoteStore
         assertEquals(serverStore.getAll(), ImmutableList.of());
     }
 
+    @Test
+    public void testTouch()
+            throws InterruptedException
+    {
+        serverStore.put(TESTING_ENTRY);
+        Entry touched = new Entry(TESTING_ENTRY.getKey(), TESTING_ENTRY.getValue(), TESTING_ENTRY.getTimestamp() + 1, 30_000L);
+
+        createStore();
+        store.touch(touched);
+        Thread.sleep(1000);
+
+        assertEquals(serverStore.getAll(), ImmutableList.of(touched));
+    }
+
+    @Test
+    public void testTouchDifferentValue()
+            throws InterruptedException
+    {
+        Entry different = new Entry(TESTING_ENTRY.getKey(), SERVICE_LIST_CODEC.toJsonBytes(ImmutableList.of(TESTING_SERVICE_1)), TESTING_ENTRY.getTimestamp(), 20_000L);
+        serverStore.put(different);
+
+        createStore();
+        store.touch(new Entry(TESTING_ENTRY.getKey(), TESTING_ENTRY.getValue(), TESTING_ENTRY.getTimestamp() + 1, 20_000L));
+        Thread.sleep(1000);
+
+        assertEquals(serverStore.getAll(), ImmutableList.of(different));
+    }
+
     private void createStore()
     {
         executor = new SerialScheduledExecutorService();
@@ -44,7 +44,7 @@ public class TestInMemoryStore
         DiscoveryConfig config = new DiscoveryConfig().setMaxAge(new Duration(1, TimeUnit.MINUTES));
         store = new InMemoryStore(config);
         updateListener = mock(UpdateListener.class);
-        store.setUpdateListener(updateListener);
+        store.addUpdateListener(updateListener);
     }
 
     @Test
@@ -54,6 +54,7 @@ public class TestInMemoryStore
         assertTrue(store.put(entry));
 
         assertEquals(store.get("blue".getBytes(Charsets.UTF_8)), entry);
+        verify(updateListener).notifyInsert(entry);
         verifyNoMoreInteractions(updateListener);
     }
 
@@ -65,6 +66,47 @@ public class TestInMemoryStore
         assertFalse(store.put(entryOf("blue", "apple", 1)));
 
         assertEquals(store.get("blue".getBytes(Charsets.UTF_8)), entry);
+        verify(updateListener).notifyInsert(entry);
+        verifyNoMoreInteractions(updateListener);
+    }
+
+    @Test
+    public void testPutWaitsForExclusiveAction()
+            throws Exception
+    {
+        Entry entry = entryOf("blue", "apple", 1);
+        Thread putter = new Thread(() -> store.put(entry));
+        store.runExclusively(() -> {
+            putter.start();
+            try {
+                putter.join(100);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            assertNull(store.get("blue".getBytes(Charsets.UTF_8)));
+        });
+        putter.join();
+
+        assertEquals(store.get("blue".getBytes(Charsets.UTF_8)), entry);
+        verify(updateListener).notifyInsert(entry);
+    }
+
+    @Test
+    public void testReplace()
+    {
+        Entry entry = entryOf("blue", "apple", 1);
+        Entry renewed = entryOf("blue", "apple", 2);
+        store.put(entry);
+
+        assertTrue(store.replace(entry, renewed));
+        assertEquals(store.get("blue".getBytes(Charsets.UTF_8)), renewed);
+        verify(updateListener).notifyInsert(entry);
+        verify(updateListener).notifyUpdate(entry, renewed);
+
+        // changed since the expected entry was read
+        assertFalse(store.replace(entry, entryOf("blue", "apple", 3)));
+        assertEquals(store.get("blue".getBytes(Charsets.UTF_8)), renewed);
         verifyNoMoreInteractions(updateListener);
     }
 
@@ -78,6 +120,8 @@ public class TestInMemoryStore
         assertTrue(store.delete(key, entry.getTimestamp()));
 
         assertNull(store.get(key));
+        verify(updateListener).notifyInsert(entry);
+        verify(updateListener).notifyRemove(entry);
         verifyNoMoreInteractions(updateListener);
     }
 
@@ -102,6 +146,7 @@ public class TestInMemoryStore
         assertFalse(store.delete(key, 2));
 
         assertEquals(store.get("blue".getBytes(Charsets.UTF_8)), entry);
+        verify(updateListener).notifyInsert(entry);
         verifyNoMoreInteractions(updateListener);
     }
 
@@ -115,6 +160,7 @@ public class TestInMemoryStore
         assertTrue(store.put(entry2));
 
         assertEquals(store.get("blue".getBytes(Charsets.UTF_8)), entry2);
+        verify(updateListener).notifyInsert(entry1);
         verify(updateListener).notifyUpdate(entry1, entry2);
         verifyNoMoreInteractions(updateListener);
     }
@@ -142,6 +188,7 @@ public class TestInMemoryStore
         assertFalse(store.put(entry1));
 
         assertEquals(store.get("blue".getBytes(Charsets.UTF_8)), entry2);
+        verify(updateListener).notifyInsert(entry2);
         verifyNoMoreInteractions(updateListener);
     }
 
@@ -152,6 +199,7 @@ public class TestInMemoryStore
         store.put(new Entry(entry.getKey(), entry.getValue(), entry.getTimestamp(), null));
 
         assertEquals(store.get("blue".getBytes(Charsets.UTF_8)), entry);
+        verify(updateListener).notifyInsert(entry);
         verifyNoMoreInteractions(updateListener);
     }
 
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2016 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.discovery.store;
+
+import com.proofpoint.json.JsonCodec;
+import org.testng.annotations.Test;
+
+import static com.proofpoint.json.JsonCodec.jsonCodec;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestTouch
+{
+    private final JsonCodec<Touch> codec = jsonCodec(Touch.class);
+    private final Entry entry = new Entry(
+            new byte[] { 0, 1, 2},
+            new byte[] { 3, 4, 5},
+            6789L,
+            12345L
+    );
+
+    @Test
+    public void testApply()
+    {
+        Touch touch = Touch.of(new Entry(entry.getKey(), entry.getValue(), 9999L, 23456L));
+
+        assertTrue(touch.matches(entry));
+        assertEquals(touch.applyTo(entry), new Entry(entry.getKey(), entry.getValue(), 9999L, 23456L));
+    }
+
+    @Test
+    public void testDifferentValue()
+    {
+        Touch touch = Touch.of(entry);
+
+        assertFalse(touch.matches(new Entry(entry.getKey(), new byte[] { 3, 4, 6}, 6789L, 12345L)));
+        assertFalse(touch.matches(new Entry(entry.getKey(), null, 6789L, null)));
+        assertFalse(touch.matches(new Entry(new byte[] { 0, 1, 3}, entry.getValue(), 6789L, 12345L)));
+    }
+
+    @Test
+    public void testJsonRoundTrip()
+    {
+        Touch touch = Touch.of(entry);
+
+        assertEquals(codec.fromJson(codec.toJson(touch)), touch);
+    }
+}